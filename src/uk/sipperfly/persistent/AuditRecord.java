@@ -0,0 +1,209 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.persistent;
+
+import java.io.Serializable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+
+/**
+ * AuditRecord Entity, progress and outcome of the periodic fixity audit of one delivered bag.
+ *
+ * @author Nouman Tayyab
+ */
+@Entity
+public class AuditRecord implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	private Long id;
+	@Column(length = 4096)
+	private String bagPath;
+	private long passStarted;
+	@Column(length = 4096)
+	private String resumeAfter;
+	private int filesChecked;
+	private long bytesChecked;
+	@Lob
+	private String failures;
+	@Column(length = 16)
+	private String lastResult;
+	private long lastCompleted;
+
+	/**
+	 * Get ID.
+	 *
+	 * @return
+	 */
+	public Long getId() {
+		return id;
+	}
+
+	/**
+	 * Set ID.
+	 *
+	 * @param id
+	 */
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	/**
+	 * Get absolute path of the bag folder or archive.
+	 *
+	 * @return
+	 */
+	public String getBagPath() {
+		return bagPath;
+	}
+
+	/**
+	 * Set absolute path of the bag folder or archive.
+	 *
+	 * @param bagPath
+	 */
+	public void setBagPath(String bagPath) {
+		this.bagPath = bagPath;
+	}
+
+	/**
+	 * Get start of the unfinished pass in milliseconds, 0 if none.
+	 *
+	 * @return
+	 */
+	public long getPassStarted() {
+		return passStarted;
+	}
+
+	/**
+	 * Set start of the unfinished pass in milliseconds, 0 if none.
+	 *
+	 * @param passStarted
+	 */
+	public void setPassStarted(long passStarted) {
+		this.passStarted = passStarted;
+	}
+
+	/**
+	 * Get last file checked by the unfinished pass, files are checked in path order.
+	 *
+	 * @return
+	 */
+	public String getResumeAfter() {
+		return resumeAfter;
+	}
+
+	/**
+	 * Set last file checked by the unfinished pass, files are checked in path order.
+	 *
+	 * @param resumeAfter
+	 */
+	public void setResumeAfter(String resumeAfter) {
+		this.resumeAfter = resumeAfter;
+	}
+
+	/**
+	 * Get files checked in the current or last pass.
+	 *
+	 * @return
+	 */
+	public int getFilesChecked() {
+		return filesChecked;
+	}
+
+	/**
+	 * Set files checked in the current or last pass.
+	 *
+	 * @param filesChecked
+	 */
+	public void setFilesChecked(int filesChecked) {
+		this.filesChecked = filesChecked;
+	}
+
+	/**
+	 * Get bytes checked in the current or last pass.
+	 *
+	 * @return
+	 */
+	public long getBytesChecked() {
+		return bytesChecked;
+	}
+
+	/**
+	 * Set bytes checked in the current or last pass.
+	 *
+	 * @param bytesChecked
+	 */
+	public void setBytesChecked(long bytesChecked) {
+		this.bytesChecked = bytesChecked;
+	}
+
+	/**
+	 * Get failures, one "path: reason" line each.
+	 *
+	 * @return
+	 */
+	public String getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Set failures, one "path: reason" line each.
+	 *
+	 * @param failures
+	 */
+	public void setFailures(String failures) {
+		this.failures = failures;
+	}
+
+	/**
+	 * Get result of the last finished pass: VALID, INVALID or ERROR.
+	 *
+	 * @return
+	 */
+	public String getLastResult() {
+		return lastResult;
+	}
+
+	/**
+	 * Set result of the last finished pass: VALID, INVALID or ERROR.
+	 *
+	 * @param lastResult
+	 */
+	public void setLastResult(String lastResult) {
+		this.lastResult = lastResult;
+	}
+
+	/**
+	 * Get end of the last finished pass in milliseconds.
+	 *
+	 * @return
+	 */
+	public long getLastCompleted() {
+		return lastCompleted;
+	}
+
+	/**
+	 * Set end of the last finished pass in milliseconds.
+	 *
+	 * @param lastCompleted
+	 */
+	public void setLastCompleted(long lastCompleted) {
+		this.lastCompleted = lastCompleted;
+	}
+}
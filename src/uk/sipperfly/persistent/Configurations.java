@@ -69,6 +69,110 @@ public class Configurations implements Serializable {
 	 * Email notifications
 	 */
 	private boolean emailNotifications = false;
+	/*
+	 * The settings below were added after the first release. Their columns are added to
+	 * existing tables empty, so they are nullable and each getter supplies the default.
+	 */
+	/**
+	 * Compute payload digests while copying instead of re-reading the staged copy.
+	 */
+	private Boolean hashDuringCopy;
+	/**
+	 * Number of threads used to hash files, 0 for one per processor.
+	 */
+	private Integer hashThreads;
+	/**
+	 * Comma separated manifest algorithms, MD5 is always included.
+	 */
+	private String manifestAlgorithms;
+	/**
+	 * Reuse digests of unchanged files from earlier runs.
+	 */
+	private Boolean fixityCache;
+	/**
+	 * Cached digests unused for this many days are evicted, 0 keeps them.
+	 */
+	private Integer fixityCacheDays;
+	/**
+	 * Hash every file again even if a cached digest exists.
+	 */
+	private Boolean forceRehash;
+	/**
+	 * Chunk size in MB for the chunk manifest, 0 disables it.
+	 */
+	private Integer chunkSize;
+	/**
+	 * How the staged copy is verified: CACHED, DIRECT or STREAMING.
+	 */
+	private String verifyMode;
+	/**
+	 * Blocks read ahead of hashing and copying per file, 0 disables read-ahead.
+	 */
+	private Integer readAheadDepth;
+	/**
+	 * How a new bag is checked: FULL, OXUM or SAMPLED.
+	 */
+	private String bagVerification;
+	/**
+	 * Percentage of payload bytes re-hashed by SAMPLED verification.
+	 */
+	private Integer samplePercent;
+	/**
+	 * Seed for choosing the sampled files, 0 picks a new seed for every bag.
+	 */
+	private Long sampleSeed;
+	/**
+	 * Stop validating a bag at the first corrupt file.
+	 */
+	private Boolean validateFailFast;
+	/**
+	 * Skip validating a bag that is unchanged since it last validated.
+	 */
+	private Boolean validationCache;
+	/**
+	 * Re-verify the bags in the drop location in the background.
+	 */
+	private Boolean auditEnabled;
+	/**
+	 * Read budget of the background audit in MB/s, 0 for no limit.
+	 */
+	private Integer auditRate;
+	/**
+	 * Daily windows the audit may run in, i.e. "22:00-06:00", empty for any time.
+	 */
+	private String auditWindows;
+	/**
+	 * Days between two audits of the same bag.
+	 */
+	private Integer auditIntervalDays;
+	/**
+	 * Adjust the hashing threads to the throughput of each source FileStore.
+	 */
+	private Boolean autoTune;
+	/**
+	 * Checksum the copy is verified with: MANIFEST for the manifest algorithms, CRC32C or CRC32.
+	 */
+	private String copyVerification;
+	/**
+	 * Threads copying files in parallel, 0 for the default.
+	 */
+	private Integer copyThreads;
+	/**
+	 * How files are staged: COPY, or LINK to hard link read only files on the drop location's file system.
+	 */
+	private String stagingMode;
+	/**
+	 * Verify linked files by checking they are still the same file as their source instead of reading them.
+	 */
+	private Boolean linkVerifyInode;
+	/**
+	 * Leave blocks of zeros as holes in the copies of sparse files.
+	 */
+	private Boolean sparseCopy;
+	/**
+	 * Reserve the full size of each copy before writing it, on Windows only where extending a file allocates it.
+	 */
+	private Boolean preallocate;
 
 	/**
 	 * Get Email notifications
@@ -88,6 +192,456 @@ public class Configurations implements Serializable {
 		this.emailNotifications = emailNotifications;
 	}
 
+	/**
+	 * Get hash during copy
+	 *
+	 * @return
+	 */
+	public boolean getHashDuringCopy() {
+		return hashDuringCopy == null ? false : hashDuringCopy;
+	}
+
+	/**
+	 * Set hash during copy
+	 *
+	 * @param hashDuringCopy
+	 */
+	public void setHashDuringCopy(boolean hashDuringCopy) {
+		this.hashDuringCopy = hashDuringCopy;
+	}
+
+	/**
+	 * Get hash threads
+	 *
+	 * @return
+	 */
+	public int getHashThreads() {
+		return hashThreads == null ? 0 : hashThreads;
+	}
+
+	/**
+	 * Set hash threads
+	 *
+	 * @param hashThreads
+	 */
+	public void setHashThreads(int hashThreads) {
+		this.hashThreads = hashThreads;
+	}
+
+	/**
+	 * Get manifest algorithms
+	 *
+	 * @return
+	 */
+	public String getManifestAlgorithms() {
+		return manifestAlgorithms == null ? "MD5" : manifestAlgorithms;
+	}
+
+	/**
+	 * Set manifest algorithms
+	 *
+	 * @param manifestAlgorithms
+	 */
+	public void setManifestAlgorithms(String manifestAlgorithms) {
+		this.manifestAlgorithms = manifestAlgorithms;
+	}
+
+	/**
+	 * Get fixity cache
+	 *
+	 * @return
+	 */
+	public boolean getFixityCache() {
+		return fixityCache == null ? true : fixityCache;
+	}
+
+	/**
+	 * Set fixity cache
+	 *
+	 * @param fixityCache
+	 */
+	public void setFixityCache(boolean fixityCache) {
+		this.fixityCache = fixityCache;
+	}
+
+	/**
+	 * Get fixity cache days
+	 *
+	 * @return
+	 */
+	public int getFixityCacheDays() {
+		return fixityCacheDays == null ? 30 : fixityCacheDays;
+	}
+
+	/**
+	 * Set fixity cache days
+	 *
+	 * @param fixityCacheDays
+	 */
+	public void setFixityCacheDays(int fixityCacheDays) {
+		this.fixityCacheDays = fixityCacheDays;
+	}
+
+	/**
+	 * Get force rehash
+	 *
+	 * @return
+	 */
+	public boolean getForceRehash() {
+		return forceRehash == null ? false : forceRehash;
+	}
+
+	/**
+	 * Set force rehash
+	 *
+	 * @param forceRehash
+	 */
+	public void setForceRehash(boolean forceRehash) {
+		this.forceRehash = forceRehash;
+	}
+
+	/**
+	 * Get chunk size
+	 *
+	 * @return
+	 */
+	public int getChunkSize() {
+		return chunkSize == null ? 0 : chunkSize;
+	}
+
+	/**
+	 * Set chunk size
+	 *
+	 * @param chunkSize
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Get verify mode
+	 *
+	 * @return
+	 */
+	public String getVerifyMode() {
+		return verifyMode == null ? "CACHED" : verifyMode;
+	}
+
+	/**
+	 * Set verify mode
+	 *
+	 * @param verifyMode
+	 */
+	public void setVerifyMode(String verifyMode) {
+		this.verifyMode = verifyMode;
+	}
+
+	/**
+	 * Get read ahead depth
+	 *
+	 * @return
+	 */
+	public int getReadAheadDepth() {
+		return readAheadDepth == null ? 0 : readAheadDepth;
+	}
+
+	/**
+	 * Set read ahead depth
+	 *
+	 * @param readAheadDepth
+	 */
+	public void setReadAheadDepth(int readAheadDepth) {
+		this.readAheadDepth = readAheadDepth;
+	}
+
+	/**
+	 * Get bag verification
+	 *
+	 * @return
+	 */
+	public String getBagVerification() {
+		return bagVerification == null ? "FULL" : bagVerification;
+	}
+
+	/**
+	 * Set bag verification
+	 *
+	 * @param bagVerification
+	 */
+	public void setBagVerification(String bagVerification) {
+		this.bagVerification = bagVerification;
+	}
+
+	/**
+	 * Get sample percent
+	 *
+	 * @return
+	 */
+	public int getSamplePercent() {
+		return samplePercent == null ? 10 : samplePercent;
+	}
+
+	/**
+	 * Set sample percent
+	 *
+	 * @param samplePercent
+	 */
+	public void setSamplePercent(int samplePercent) {
+		this.samplePercent = samplePercent;
+	}
+
+	/**
+	 * Get sample seed
+	 *
+	 * @return
+	 */
+	public long getSampleSeed() {
+		return sampleSeed == null ? 0 : sampleSeed;
+	}
+
+	/**
+	 * Set sample seed
+	 *
+	 * @param sampleSeed
+	 */
+	public void setSampleSeed(long sampleSeed) {
+		this.sampleSeed = sampleSeed;
+	}
+
+	/**
+	 * Get validate fail fast
+	 *
+	 * @return
+	 */
+	public boolean getValidateFailFast() {
+		return validateFailFast == null ? false : validateFailFast;
+	}
+
+	/**
+	 * Set validate fail fast
+	 *
+	 * @param validateFailFast
+	 */
+	public void setValidateFailFast(boolean validateFailFast) {
+		this.validateFailFast = validateFailFast;
+	}
+
+	/**
+	 * Get validation cache
+	 *
+	 * @return
+	 */
+	public boolean getValidationCache() {
+		return validationCache == null ? true : validationCache;
+	}
+
+	/**
+	 * Set validation cache
+	 *
+	 * @param validationCache
+	 */
+	public void setValidationCache(boolean validationCache) {
+		this.validationCache = validationCache;
+	}
+
+	/**
+	 * Get audit enabled
+	 *
+	 * @return
+	 */
+	public boolean getAuditEnabled() {
+		return auditEnabled == null ? false : auditEnabled;
+	}
+
+	/**
+	 * Set audit enabled
+	 *
+	 * @param auditEnabled
+	 */
+	public void setAuditEnabled(boolean auditEnabled) {
+		this.auditEnabled = auditEnabled;
+	}
+
+	/**
+	 * Get audit rate
+	 *
+	 * @return
+	 */
+	public int getAuditRate() {
+		return auditRate == null ? 20 : auditRate;
+	}
+
+	/**
+	 * Set audit rate
+	 *
+	 * @param auditRate
+	 */
+	public void setAuditRate(int auditRate) {
+		this.auditRate = auditRate;
+	}
+
+	/**
+	 * Get audit windows
+	 *
+	 * @return
+	 */
+	public String getAuditWindows() {
+		return auditWindows == null ? "" : auditWindows;
+	}
+
+	/**
+	 * Set audit windows
+	 *
+	 * @param auditWindows
+	 */
+	public void setAuditWindows(String auditWindows) {
+		this.auditWindows = auditWindows;
+	}
+
+	/**
+	 * Get audit interval days
+	 *
+	 * @return
+	 */
+	public int getAuditIntervalDays() {
+		return auditIntervalDays == null ? 90 : auditIntervalDays;
+	}
+
+	/**
+	 * Set audit interval days
+	 *
+	 * @param auditIntervalDays
+	 */
+	public void setAuditIntervalDays(int auditIntervalDays) {
+		this.auditIntervalDays = auditIntervalDays;
+	}
+
+	/**
+	 * Get auto tune
+	 *
+	 * @return
+	 */
+	public boolean getAutoTune() {
+		return autoTune == null ? true : autoTune;
+	}
+
+	/**
+	 * Set auto tune
+	 *
+	 * @param autoTune
+	 */
+	public void setAutoTune(boolean autoTune) {
+		this.autoTune = autoTune;
+	}
+
+	/**
+	 * Get copy verification
+	 *
+	 * @return
+	 */
+	public String getCopyVerification() {
+		return copyVerification == null ? "MANIFEST" : copyVerification;
+	}
+
+	/**
+	 * Set copy verification
+	 *
+	 * @param copyVerification
+	 */
+	public void setCopyVerification(String copyVerification) {
+		this.copyVerification = copyVerification;
+	}
+
+	/**
+	 * Get copy threads
+	 *
+	 * @return
+	 */
+	public int getCopyThreads() {
+		return copyThreads == null ? 0 : copyThreads;
+	}
+
+	/**
+	 * Set copy threads
+	 *
+	 * @param copyThreads
+	 */
+	public void setCopyThreads(int copyThreads) {
+		this.copyThreads = copyThreads;
+	}
+
+	/**
+	 * Get staging mode
+	 *
+	 * @return
+	 */
+	public String getStagingMode() {
+		return stagingMode == null ? "COPY" : stagingMode;
+	}
+
+	/**
+	 * Set staging mode
+	 *
+	 * @param stagingMode
+	 */
+	public void setStagingMode(String stagingMode) {
+		this.stagingMode = stagingMode;
+	}
+
+	/**
+	 * Get link verify inode
+	 *
+	 * @return
+	 */
+	public boolean getLinkVerifyInode() {
+		return linkVerifyInode == null ? true : linkVerifyInode;
+	}
+
+	/**
+	 * Set link verify inode
+	 *
+	 * @param linkVerifyInode
+	 */
+	public void setLinkVerifyInode(boolean linkVerifyInode) {
+		this.linkVerifyInode = linkVerifyInode;
+	}
+
+	/**
+	 * Get sparse copy
+	 *
+	 * @return
+	 */
+	public boolean getSparseCopy() {
+		return sparseCopy == null ? false : sparseCopy;
+	}
+
+	/**
+	 * Set sparse copy
+	 *
+	 * @param sparseCopy
+	 */
+	public void setSparseCopy(boolean sparseCopy) {
+		this.sparseCopy = sparseCopy;
+	}
+
+	/**
+	 * Get preallocate
+	 *
+	 * @return
+	 */
+	public boolean getPreallocate() {
+		return preallocate == null ? System.getProperty("os.name").toLowerCase().startsWith("windows") : preallocate;
+	}
+
+	/**
+	 * Set preallocate
+	 *
+	 * @param preallocate
+	 */
+	public void setPreallocate(boolean preallocate) {
+		this.preallocate = preallocate;
+	}
+
 	/**
 	 * Get Drop Location
 	 *
@@ -0,0 +1,177 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.persistent;
+
+import java.io.Serializable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+
+/**
+ * FixityRecord Entity, digests of a file as they were last computed.
+ * A record is only reused while path, size, modification time and file key are unchanged.
+ *
+ * @author Nouman Tayyab
+ */
+@Entity
+public class FixityRecord implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	private Long id;
+	@Column(length = 4096)
+	private String path;
+	private long fileSize;
+	private long lastModified;
+	@Column(length = 1024)
+	private String fileKey;
+	/**
+	 * Comma separated algorithm=digest pairs.
+	 */
+	@Lob
+	private String digests;
+	/**
+	 * Last time the record was written or served, used for eviction.
+	 */
+	private long lastUsed;
+
+	/**
+	 * Get ID.
+	 *
+	 * @return
+	 */
+	public Long getId() {
+		return id;
+	}
+
+	/**
+	 * Set ID.
+	 *
+	 * @param id
+	 */
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	/**
+	 * Get absolute path.
+	 *
+	 * @return
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Set absolute path.
+	 *
+	 * @param path
+	 */
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Get file size.
+	 *
+	 * @return
+	 */
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	/**
+	 * Set file size.
+	 *
+	 * @param fileSize
+	 */
+	public void setFileSize(long fileSize) {
+		this.fileSize = fileSize;
+	}
+
+	/**
+	 * Get last modified time in milliseconds.
+	 *
+	 * @return
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Set last modified time in milliseconds.
+	 *
+	 * @param lastModified
+	 */
+	public void setLastModified(long lastModified) {
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Get file key.
+	 *
+	 * @return
+	 */
+	public String getFileKey() {
+		return fileKey;
+	}
+
+	/**
+	 * Set file key.
+	 *
+	 * @param fileKey
+	 */
+	public void setFileKey(String fileKey) {
+		this.fileKey = fileKey;
+	}
+
+	/**
+	 * Get digests.
+	 *
+	 * @return
+	 */
+	public String getDigests() {
+		return digests;
+	}
+
+	/**
+	 * Set digests.
+	 *
+	 * @param digests
+	 */
+	public void setDigests(String digests) {
+		this.digests = digests;
+	}
+
+	/**
+	 * Get last used time in milliseconds.
+	 *
+	 * @return
+	 */
+	public long getLastUsed() {
+		return lastUsed;
+	}
+
+	/**
+	 * Set last used time in milliseconds.
+	 *
+	 * @param lastUsed
+	 */
+	public void setLastUsed(long lastUsed) {
+		this.lastUsed = lastUsed;
+	}
+}
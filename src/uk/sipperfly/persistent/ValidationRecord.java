@@ -0,0 +1,156 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.persistent;
+
+import java.io.Serializable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+
+/**
+ * ValidationRecord Entity, outcome of the last validation of a bag.
+ * The record only applies while the fingerprint of the bag is unchanged.
+ *
+ * @author Nouman Tayyab
+ */
+@Entity
+public class ValidationRecord implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	private Long id;
+	@Column(length = 4096)
+	private String bagPath;
+	/**
+	 * Hex SHA-256 over the size, modification time and file key of every file of the bag.
+	 */
+	@Column(length = 64)
+	private String fingerprint;
+	private boolean valid;
+	private int fileCount;
+	/**
+	 * Time of the validation in milliseconds.
+	 */
+	private long validated;
+
+	/**
+	 * Get ID.
+	 *
+	 * @return
+	 */
+	public Long getId() {
+		return id;
+	}
+
+	/**
+	 * Set ID.
+	 *
+	 * @param id
+	 */
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	/**
+	 * Get absolute path of the bag folder or archive.
+	 *
+	 * @return
+	 */
+	public String getBagPath() {
+		return bagPath;
+	}
+
+	/**
+	 * Set absolute path of the bag folder or archive.
+	 *
+	 * @param bagPath
+	 */
+	public void setBagPath(String bagPath) {
+		this.bagPath = bagPath;
+	}
+
+	/**
+	 * Get fingerprint.
+	 *
+	 * @return
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Set fingerprint.
+	 *
+	 * @param fingerprint
+	 */
+	public void setFingerprint(String fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Get whether the bag was valid.
+	 *
+	 * @return
+	 */
+	public boolean getValid() {
+		return valid;
+	}
+
+	/**
+	 * Set whether the bag was valid.
+	 *
+	 * @param valid
+	 */
+	public void setValid(boolean valid) {
+		this.valid = valid;
+	}
+
+	/**
+	 * Get number of files in the fingerprint.
+	 *
+	 * @return
+	 */
+	public int getFileCount() {
+		return fileCount;
+	}
+
+	/**
+	 * Set number of files in the fingerprint.
+	 *
+	 * @param fileCount
+	 */
+	public void setFileCount(int fileCount) {
+		this.fileCount = fileCount;
+	}
+
+	/**
+	 * Get validation time in milliseconds.
+	 *
+	 * @return
+	 */
+	public long getValidated() {
+		return validated;
+	}
+
+	/**
+	 * Set validation time in milliseconds.
+	 *
+	 * @param validated
+	 */
+	public void setValidated(long validated) {
+		this.validated = validated;
+	}
+}
@@ -0,0 +1,81 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.repository;
+
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.persistence.TypedQuery;
+import uk.sipperfly.persistent.AuditRecord;
+
+/**
+ * AuditRecord repository.
+ *
+ * @author Nouman Tayyab
+ */
+public class AuditRecordRepo {
+
+	/**
+	 * EntityManagerFactory.
+	 *
+	 */
+	EntityManagerFactory entityManagerFactory;
+	/**
+	 * Entity Manager.
+	 */
+	EntityManager entityManager;
+
+	/**
+	 * Constructor for AuditRecordRepo
+	 *
+	 */
+	public AuditRecordRepo() {
+		this.entityManagerFactory = Persistence.createEntityManagerFactory("UKSipperflyPU");
+		this.entityManager = this.entityManagerFactory.createEntityManager();
+	}
+
+	/**
+	 * Get all audit records.
+	 *
+	 * @return records
+	 */
+	public List<AuditRecord> getAll() {
+		TypedQuery<AuditRecord> query = this.entityManager.createQuery("SELECT a FROM AuditRecord a", AuditRecord.class);
+		return query.getResultList();
+	}
+
+	/**
+	 * Save a new or changed record.
+	 *
+	 * @param record
+	 * @return the managed record
+	 */
+	public AuditRecord save(AuditRecord record) {
+		this.entityManager.getTransaction().begin();
+		if (record.getId() == null) {
+			this.entityManager.persist(record);
+		} else {
+			record = this.entityManager.merge(record);
+		}
+		this.entityManager.getTransaction().commit();
+		return record;
+	}
+
+	/**
+	 * Close the entity manager.
+	 */
+	public void close() {
+		this.entityManager.close();
+	}
+}
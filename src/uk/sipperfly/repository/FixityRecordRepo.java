@@ -0,0 +1,110 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.repository;
+
+import java.util.Collection;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.persistence.TypedQuery;
+import uk.sipperfly.persistent.FixityRecord;
+
+/**
+ * FixityRecord repository.
+ *
+ * @author Nouman Tayyab
+ */
+public class FixityRecordRepo {
+
+	/**
+	 * EntityManagerFactory.
+	 *
+	 */
+	EntityManagerFactory entityManagerFactory;
+	/**
+	 * Entity Manager.
+	 */
+	EntityManager entityManager;
+
+	/**
+	 * Constructor for FixityRecordRepo
+	 *
+	 */
+	public FixityRecordRepo() {
+		this.entityManagerFactory = Persistence.createEntityManagerFactory("UKSipperflyPU");
+		this.entityManager = this.entityManagerFactory.createEntityManager();
+	}
+
+	/**
+	 * Get all records for files below a folder.
+	 *
+	 * @param prefix absolute folder path ending with the separator, or the absolute path of a single file
+	 * @return records
+	 */
+	public List<FixityRecord> getByPrefix(String prefix) {
+		TypedQuery<FixityRecord> query = this.entityManager.createQuery(
+				"SELECT f FROM FixityRecord f WHERE LOCATE(:prefix, f.path) = 1", FixityRecord.class);
+		query.setParameter("prefix", prefix);
+		return query.getResultList();
+	}
+
+	/**
+	 * Save new and changed records in one transaction.
+	 *
+	 * @param records
+	 */
+	public void saveAll(Collection<FixityRecord> records) {
+		this.entityManager.getTransaction().begin();
+		for (FixityRecord record : records) {
+			if (record.getId() == null) {
+				this.entityManager.persist(record);
+			} else {
+				this.entityManager.merge(record);
+			}
+		}
+		this.entityManager.getTransaction().commit();
+	}
+
+	/**
+	 * Delete records that have not been used since the cutoff.
+	 *
+	 * @param cutoff time in milliseconds
+	 * @return number of deleted records
+	 */
+	public int evictOlderThan(long cutoff) {
+		this.entityManager.getTransaction().begin();
+		int deleted = this.entityManager.createQuery("DELETE FROM FixityRecord f WHERE f.lastUsed < :cutoff")
+				.setParameter("cutoff", cutoff)
+				.executeUpdate();
+		this.entityManager.getTransaction().commit();
+		return deleted;
+	}
+
+	/**
+	 * truncate FixityRecord table
+	 */
+	public void truncate() {
+		EntityManager em = this.entityManager;
+		em.getTransaction().begin();
+		em.createNativeQuery("truncate table FixityRecord").executeUpdate();
+		em.getTransaction().commit();
+	}
+
+	/**
+	 * Close the entity manager.
+	 */
+	public void close() {
+		this.entityManager.close();
+	}
+}
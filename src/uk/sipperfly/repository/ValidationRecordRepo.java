@@ -0,0 +1,93 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.repository;
+
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.persistence.TypedQuery;
+import uk.sipperfly.persistent.ValidationRecord;
+
+/**
+ * ValidationRecord repository.
+ *
+ * @author Nouman Tayyab
+ */
+public class ValidationRecordRepo {
+
+	/**
+	 * EntityManagerFactory.
+	 *
+	 */
+	EntityManagerFactory entityManagerFactory;
+	/**
+	 * Entity Manager.
+	 */
+	EntityManager entityManager;
+
+	/**
+	 * Constructor for ValidationRecordRepo
+	 *
+	 */
+	public ValidationRecordRepo() {
+		this.entityManagerFactory = Persistence.createEntityManagerFactory("UKSipperflyPU");
+		this.entityManager = this.entityManagerFactory.createEntityManager();
+	}
+
+	/**
+	 * Get the record of a bag.
+	 *
+	 * @param bagPath absolute path of the bag folder or archive
+	 * @return the record or null
+	 */
+	public ValidationRecord getByPath(String bagPath) {
+		TypedQuery<ValidationRecord> query = this.entityManager.createQuery(
+				"SELECT v FROM ValidationRecord v WHERE v.bagPath = :bagPath", ValidationRecord.class);
+		query.setParameter("bagPath", bagPath);
+		List<ValidationRecord> records = query.getResultList();
+		return records.isEmpty() ? null : records.get(0);
+	}
+
+	/**
+	 * Save a new or changed record.
+	 *
+	 * @param record
+	 */
+	public void save(ValidationRecord record) {
+		this.entityManager.getTransaction().begin();
+		if (record.getId() == null) {
+			this.entityManager.persist(record);
+		} else {
+			this.entityManager.merge(record);
+		}
+		this.entityManager.getTransaction().commit();
+	}
+
+	/**
+	 * truncate ValidationRecord table
+	 */
+	public void truncate() {
+		EntityManager em = this.entityManager;
+		em.getTransaction().begin();
+		em.createNativeQuery("truncate table ValidationRecord").executeUpdate();
+		em.getTransaction().commit();
+	}
+
+	/**
+	 * Close the entity manager.
+	 */
+	public void close() {
+		this.entityManager.close();
+	}
+}
@@ -27,6 +27,7 @@ import static uk.sipperfly.ui.Exactly.GACOM;
 // Bagit imports
 import gov.loc.repository.bagit.creator.BagCreator;
 import gov.loc.repository.bagit.domain.Bag;
+import gov.loc.repository.bagit.domain.Manifest;
 import gov.loc.repository.bagit.domain.Metadata;
 import gov.loc.repository.bagit.exceptions.*;
 import gov.loc.repository.bagit.hash.StandardSupportedAlgorithms;
@@ -54,7 +55,11 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import javax.swing.BorderFactory;
@@ -65,7 +70,21 @@ import uk.sipperfly.persistent.Recipients;
 import uk.sipperfly.repository.BagInfoRepo;
 import uk.sipperfly.repository.ConfigurationsRepo;
 import uk.sipperfly.repository.RecipientsRepo;
+import uk.sipperfly.utils.BagValidator;
+import uk.sipperfly.utils.BagVerification;
 import uk.sipperfly.utils.CommonUtil;
+import uk.sipperfly.utils.FastChecksum;
+import uk.sipperfly.utils.FixityCache;
+import uk.sipperfly.utils.HashingEngine;
+import uk.sipperfly.utils.IgnoreFilter;
+import uk.sipperfly.utils.LinkStaging;
+import uk.sipperfly.utils.ManifestBagWriter;
+import uk.sipperfly.utils.PayloadManifest;
+import uk.sipperfly.utils.ReadAhead;
+import uk.sipperfly.utils.TransferJournal;
+import uk.sipperfly.utils.ValidationCache;
+import uk.sipperfly.utils.VerifyReport;
+import uk.sipperfly.utils.ZipBag;
 import uk.sipperfly.utils.ZipUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -120,7 +139,6 @@ class BackgroundWorker extends SwingWorker<Integer, Void> {
 	private String unbagDestination = "";
 	private UIManager uIManager;
 	private final SFTP sftp;
-	private static String targetChecksum;
 	String content = "";
 	String payLoad = "";
 	String bagDate = "";
@@ -128,6 +146,28 @@ class BackgroundWorker extends SwingWorker<Integer, Void> {
 	String manifest = "";
 	int totalFiles;
 	private int totalTries = 1;
+	/**
+	 * Digests of each staged file taken while it was copied.
+	 * Null unless hash during copy is enabled.
+	 */
+	private PayloadManifest copyManifest;
+	/**
+	 * Fast checksum of every file taken while copying, null when the copy is verified with the manifest algorithms.
+	 */
+	private PayloadManifest fastManifest;
+	/**
+	 * Keys of the files staged as hard links, null when files are copied.
+	 */
+	private Set<String> linkedFiles;
+	/**
+	 * Source entries of the linked files that were verified to still be their source, so they are not read again.
+	 */
+	private PayloadManifest verifiedLinks;
+	/**
+	 * Cost and durability of the copy verification, appended to the semaphore.
+	 */
+	private VerifyReport verifyReport;
+	private final HashingEngine hashingEngine;
 
 //	public BackgroundWorker(int process) {
 //		this.process = process;
@@ -161,6 +201,9 @@ class BackgroundWorker extends SwingWorker<Integer, Void> {
 		this.uIManager = new UIManager(parent);
 		this.sftp = sftpRepo.getOneOrCreateOne();
 		this.totalFiles = this.parent.totalFiles;
+		ReadAhead.setDefaultDepth(this.config.getReadAheadDepth());
+		this.hashingEngine = new HashingEngine(this.config.getHashThreads());
+		this.hashingEngine.setAutoTune(this.config.getAutoTune());
 	}
 
 	/**
@@ -271,7 +314,10 @@ class BackgroundWorker extends SwingWorker<Integer, Void> {
 			}
 
 			if (this.process == 1) {
-				if (this.validateBagName()) {
+				if (this.validateBagName() && TransferJournal.canResume(this.target, TransferJournal.signature(this.sources))) {
+					// an interrupted transfer of the same sources left this folder, continue it
+					Logger.getLogger(GACOM).log(Level.INFO, "Resuming interrupted transfer into {0}", this.target);
+				} else if (this.validateBagName()) {
 					this.parent.UpdateResult("Folder already existed in destination with this title. Please change the title.", 0);
 					Logger.getLogger(GACOM).log(Level.SEVERE, "Folder already existed in destination with this title. Please change the title.");
 					this.parent.btnTransferFiles.setEnabled(true);
@@ -341,15 +387,23 @@ class BackgroundWorker extends SwingWorker<Integer, Void> {
 				//transfer
 				Logger.getLogger(GACOM).log(Level.INFO, "Transfering files...");
 				Path target = TransferFiles();
+				if (this.isCancelled()) {
+					// the staged files and the journal are kept, the transfer resumes when it is started again
+					Logger.getLogger(GACOM).log(Level.INFO, "Transfer canceled.");
+					this.parent.UpdateResult("Transfer canceled. Start it again with the same title to resume it.", 0);
+					return -1;
+				}
 				if (!getTargetChecksum(this.target.toFile()).equals("success")) {
 					this.parent.UpdateResult("Something went wrong while copying files again trying to transfer files...", 0);
 					FileUtils.deleteDirectory(this.target.toFile());
+					TransferJournal.delete(this.target);
 					this.totalTries = this.totalTries + 1;
 					this.setTragetPath();
 					target = TransferFiles();
 					if (!getTargetChecksum(this.target.toFile()).equals("success")) {
 						this.parent.UpdateResult("Something went wrong while copying files again trying to transfer files...", 0);
 						FileUtils.deleteDirectory(this.target.toFile());
+						TransferJournal.delete(this.target);
 						this.setTragetPath();
 						this.totalTries = this.totalTries + 1;
 						target = TransferFiles();
@@ -357,6 +411,7 @@ class BackgroundWorker extends SwingWorker<Integer, Void> {
 							this.parent.UpdateResult("Please try again.", 0);
 							this.totalTries = 1;
 							FileUtils.deleteDirectory(this.target.toFile());
+							TransferJournal.delete(this.target);
 							return -1;
 						}
 					}
@@ -367,10 +422,15 @@ class BackgroundWorker extends SwingWorker<Integer, Void> {
 					this.parent.UpdateResult("Transfer canceled.", 0);
 					return -1;
 				}
+				// the staged files are verified, bagging does not resume
+				TransferJournal.delete(this.target);
 				// bagit
 				this.parent.UpdateResult("Preparing Bag...", 0);
 				Logger.getLogger(GACOM).log(Level.INFO, "Preparing Bag...");
-				BagFolder();
+				if (!BagFolder()) {
+					this.parent.btnTransferFiles.setEnabled(true);
+					return -1;
+				}
 				if (this.isCancelled()) {
 					Logger.getLogger(GACOM).log(Level.INFO, "Canceling Bagit task.");
 					return -1;
@@ -613,6 +673,7 @@ class BackgroundWorker extends SwingWorker<Integer, Void> {
 	 */
 	@Override
 	protected void done() {
+		this.hashingEngine.shutdown();
 		try {
 			// Transfer result already updated in worker thread
 			if (this.get() < 0) {
@@ -664,9 +725,10 @@ class BackgroundWorker extends SwingWorker<Integer, Void> {
 	 * Any errors are reported to the parent UI.
 	 * Creates a success semaphore in the source directory if the transfer succeeded.
 	 *
+	 * @return false if the bag failed verification, it must not be serialized or delivered
 	 * @see* http://www.digitalpreservation.gov/documents/bagitspec.pdf
 	 */
-	public void BagFolder() throws NoSuchAlgorithmException, IOException {
+	public boolean BagFolder() throws NoSuchAlgorithmException, IOException {
                 Path folder = Paths.get(this.target.toFile().getAbsolutePath());
 		long size = FileUtils.sizeOfDirectory(folder.toFile());
 		Double truncatedDouble = BigDecimal.valueOf(((double) size / (double) 1024))
@@ -674,19 +736,34 @@ class BackgroundWorker extends SwingWorker<Integer, Void> {
 				.doubleValue();
 		this.bagitSize = truncatedDouble + " KB";
 		Metadata extraMetadata = new Metadata();
+		// the staged copy was verified against these digests, so the bag can be written without reading the payload again
+		ManifestBagWriter bagWriter = new ManifestBagWriter(this.copyManifest != null ? this.copyManifest : this.parent.sourceManifest);
 		BagInfoRepo bagInfoRepo = new BagInfoRepo();
 		List<BagInfo> bagInfoList = bagInfoRepo.getOneOrCreateOne();
 		for (BagInfo bagInfo : bagInfoList) {
 			extraMetadata.add(bagInfo.getLabel(), this.commonUtil.createBagInfoTxt(bagInfo));
+			bagWriter.addMetadata(bagInfo.getLabel(), this.commonUtil.createBagInfoTxt(bagInfo));
 		}
 		extraMetadata.add("Bag-Size", this.bagitSize);
+		bagWriter.addMetadata("Bag-Size", this.bagitSize);
 
-		Bag bag = BagCreator.bagInPlace(
-			folder,
-			Collections.singletonList((SupportedAlgorithm) StandardSupportedAlgorithms.MD5),
-			true,
-			extraMetadata
-		);
+		Bag bag;
+		boolean precomputed = bagWriter.covers(folder);
+		if (precomputed) {
+			bagWriter.write(folder);
+			bag = this.readBag(folder);
+		} else {
+			bag = BagCreator.bagInPlace(
+				folder,
+				this.bagAlgorithms(),
+				true,
+				extraMetadata
+			);
+			if (this.parent.sourceManifest.getChunkSize() > 0) {
+				String prefix = CommonUtil.relativeKey(folder, this.stagedPayloadRoot(folder)) + "/";
+				this.parent.sourceManifest.writeChunkManifest(new File(folder.toFile(), ManifestBagWriter.CHUNK_MANIFEST), prefix);
+			}
+		}
 
 		Charset charset;
 
@@ -726,19 +803,62 @@ class BackgroundWorker extends SwingWorker<Integer, Void> {
 			this.commonUtil.CreateSuccessSemaphore(this.config.getUsername(), this.parent.bagNameField.getText(), this.target, "", "", this.bagSize, bag.getPayLoadManifests().size(), zip, sender, recipients.toString(), emailNotification);
 		}
 
+		if (this.verifyReport != null) {
+			this.commonUtil.appendToSemaphore(this.target, this.verifyReport.lines());
+		}
+
 		this.payLoad = payloadOxum;
 		this.bagDate = bag.getMetadata().get("Bagging-Date").get(0);
-		String payloadManifest = bag.getPayLoadManifests().toString();
-		this.manifest = payloadManifest.substring(1, payloadManifest.length() - 1);
+		for (Manifest payloadManifest : bag.getPayLoadManifests()) {
+			if (StandardSupportedAlgorithms.MD5.equals(payloadManifest.getAlgorithm())) {
+				String md5Manifest = Collections.singleton(payloadManifest).toString();
+				this.manifest = md5Manifest.substring(1, md5Manifest.length() - 1);
+			}
+		}
 		this.generateSystemDataFile();
 		this.generateCsvFile(this.payLoad, this.bagDate, bagitSize);
 		this.createXML(this.payLoad, this.bagDate, bagitSize);
                 BagVerifier verifier = new BagVerifier();
+		BagVerification verification = new BagVerification(BagVerification.Level.parse(this.config.getBagVerification()),
+				this.config.getSamplePercent(), this.config.getSampleSeed());
 		try {
-                    
-                    BagReader reader = new BagReader();
-                    bag = reader.read(folder);
-                    verifier.isValid(bag, false);
+                    String failure = null;
+                    if (verification.getLevel() != BagVerification.Level.FULL) {
+                        if (!this.verifyPayloadOxum(verifier, bag)
+                                || (verification.getLevel() == BagVerification.Level.SAMPLED && !this.verifySample(bag, verification))) {
+                            failure = "Bag verification failed.";
+                        }
+                    } else if (precomputed) {
+                        verifier.isValid(bag, false);
+                    } else if (this.copyManifest != null) {
+                        // the manifest was hashed from the staged copy, compare it with what was read from the source
+                        if (!this.verifyCopyDigests(bag, this.copyManifest)) {
+                            failure = "Bag manifest does not match the copied data.";
+                        }
+                    } else if (this.parent.sourceManifest.getChunkSize() > 0) {
+                        // the copy was verified chunk by chunk, close the loop with the digests of the source
+                        if (!this.verifyCopyDigests(bag, this.parent.sourceManifest)) {
+                            failure = "Bag manifest does not match the source data.";
+                        }
+                    } else {
+                        BagReader reader = new BagReader();
+                        bag = reader.read(folder);
+                        verifier.isValid(bag, false);
+                    }
+                    if (failure != null) {
+                        // the bag is neither serialized nor delivered, the report says how it was checked
+                        Logger.getLogger(GACOM).log(Level.SEVERE, "{0} Level {1}, seed {2}", new Object[]{failure, verification.getLevel(), String.valueOf(verification.getSeed())});
+                        List<String> lines = new ArrayList<String>(verification.lines());
+                        lines.add("Bag verification failed: " + failure);
+                        this.commonUtil.appendToSemaphore(this.target, lines);
+                        this.parent.UpdateResult(failure, 0);
+                        return false;
+                    }
+
+                    for (String line : verification.lines()) {
+                        Logger.getLogger(GACOM).log(Level.INFO, line);
+                    }
+                    this.commonUtil.appendToSemaphore(this.target, verification.lines());
 
                     numberOfFiles = bag.getPayLoadManifests().size(); // get the number of payload files
                     numberOfFiles += 4; // add the standard bagit files
@@ -756,42 +876,450 @@ class BackgroundWorker extends SwingWorker<Integer, Void> {
                     }
 		} catch (IOException | UnparsableVersionException | VerificationException | MaliciousPathException | MissingPayloadManifestException | UnsupportedAlgorithmException | CorruptChecksumException | MissingBagitFileException | InvalidBagitFileFormatException | MissingPayloadDirectoryException | InterruptedException | FileNotInPayloadDirectoryException ex) {
 			Logger.getLogger(GACOM).log(Level.SEVERE, "Error closing the bag", ex);
-			File newManifest = new File(this.target.toString() + File.separator + "manifest-md5.txt");
-			Files.write(newManifest.toPath(), this.content.getBytes(StandardCharsets.UTF_8));
+			Logger.getLogger(GACOM).log(Level.SEVERE, "Bag verification level {0}, seed {1}", new Object[]{verification.getLevel(), String.valueOf(verification.getSeed())});
+			if (this.content != null) {
+				File newManifest = new File(this.target.toString() + File.separator + "manifest-md5.txt");
+				Files.write(newManifest.toPath(), this.content.getBytes(StandardCharsets.UTF_8));
+			}
+			List<String> lines = new ArrayList<String>(verification.lines());
+			lines.add("Bag verification failed: " + ex.getMessage());
+			this.commonUtil.appendToSemaphore(this.target, lines);
+			this.parent.UpdateResult("Bag verification failed.", 0);
+			return false;
 		} finally {
                     verifier.close();
                 }
 		if (this.parent.totalFiles > this.parent.tranferredFiles) {
 			this.parent.UpdateProgressBar(this.parent.totalFiles);
 		}
+		return true;
+	}
+
+	/**
+	 * Check that the manifests list exactly the payload files and that their sizes add up to Payload-Oxum.
+	 * No payload is read.
+	 *
+	 * @param verifier bag verifier
+	 * @param bag      new bag
+	 * @return true if the bag is complete and matches its Payload-Oxum
+	 */
+	private boolean verifyPayloadOxum(BagVerifier verifier, Bag bag) throws IOException, MissingPayloadManifestException, MissingBagitFileException, MissingPayloadDirectoryException, FileNotInPayloadDirectoryException, InterruptedException, MaliciousPathException, UnsupportedAlgorithmException, InvalidBagitFileFormatException {
+		verifier.isComplete(bag, false);
+		List<String> oxum = bag.getMetadata().get("Payload-Oxum");
+		if (oxum == null || oxum.isEmpty() || bag.getPayLoadManifests().isEmpty()) {
+			return false;
+		}
+		String[] parts = oxum.get(0).trim().split("\\.");
+		Map<Path, String> files = bag.getPayLoadManifests().iterator().next().getFileToChecksumMap();
+		long bytes = 0;
+		for (Path file : files.keySet()) {
+			bytes += Files.size(file);
+		}
+		if (parts.length != 2 || !parts[0].equals(String.valueOf(bytes)) || !parts[1].equals(String.valueOf(files.size()))) {
+			Logger.getLogger(GACOM).log(Level.SEVERE, "Payload-Oxum {0} does not match {1}.{2}", new Object[]{oxum.get(0), bytes, files.size()});
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Re-hash a seeded random sample of the payload against every payload manifest.
+	 *
+	 * @param bag          new bag
+	 * @param verification sample size and seed
+	 * @return true if every sampled file matches
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private boolean verifySample(Bag bag, BagVerification verification) throws IOException, InterruptedException {
+		Map<File, Map<String, String>> expected = new HashMap<File, Map<String, String>>();
+		List<String> algorithms = new ArrayList<String>();
+		for (Manifest manifest : bag.getPayLoadManifests()) {
+			String algorithm = manifest.getAlgorithm().getMessageDigestName();
+			algorithms.add(algorithm);
+			for (Map.Entry<Path, String> entry : manifest.getFileToChecksumMap().entrySet()) {
+				File file = entry.getKey().toFile();
+				if (!expected.containsKey(file)) {
+					expected.put(file, new HashMap<String, String>());
+				}
+				expected.get(file).put(algorithm, entry.getValue());
+			}
+		}
+		Map<File, Long> sizes = new HashMap<File, Long>();
+		for (File file : expected.keySet()) {
+			sizes.put(file, file.length());
+		}
+		List<File> sample = verification.sample(sizes);
+		Logger.getLogger(GACOM).log(Level.INFO, "Re-hashing {0} sampled files with seed {1}", new Object[]{sample.size(), String.valueOf(verification.getSeed())});
+		Map<File, Map<String, String>> actual = this.hashingEngine.hashFiles(sample, algorithms, null);
+		for (File file : sample) {
+			Map<String, String> digests = actual.get(file);
+			for (Map.Entry<String, String> digest : expected.get(file).entrySet()) {
+				if (digests == null || !digest.getValue().equalsIgnoreCase(digests.get(digest.getKey()))) {
+					Logger.getLogger(GACOM).log(Level.SEVERE, "{0} does not match the bag manifest", file);
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read a bag written by ManifestBagWriter back through the bagit library.
+	 *
+	 * @param folder bag root
+	 * @return the bag
+	 * @throws IOException if the bag cannot be parsed
+	 */
+	private Bag readBag(Path folder) throws IOException {
+		try {
+			return new BagReader().read(folder);
+		} catch (UnparsableVersionException | MaliciousPathException | UnsupportedAlgorithmException | InvalidBagitFileFormatException ex) {
+			throw new IOException("Unable to read the bag at " + folder, ex);
+		}
+	}
+
+	/**
+	 * Bagit algorithms for the configured manifest algorithms.
+	 *
+	 * @return one algorithm per payload manifest, MD5 first
+	 */
+	private List<SupportedAlgorithm> bagAlgorithms() {
+		List<SupportedAlgorithm> algorithms = new ArrayList<SupportedAlgorithm>();
+		for (String name : this.parent.sourceManifest.getAlgorithms()) {
+			for (StandardSupportedAlgorithms algorithm : StandardSupportedAlgorithms.values()) {
+				if (algorithm.getMessageDigestName().equals(name)) {
+					algorithms.add(algorithm);
+				}
+			}
+		}
+		return algorithms;
+	}
+
+	/**
+	 * Compare every payload manifest of the new bag with digests taken earlier.
+	 *
+	 * @param bag bag created in place from the staged target
+	 * @param expected digests taken while copying or while scanning the source
+	 * @return true if every copied file is listed with the same digests
+	 */
+	private boolean verifyCopyDigests(Bag bag, PayloadManifest expected) {
+		Path stagedRoot = this.stagedPayloadRoot(Paths.get(this.target.toFile().getAbsolutePath()));
+		if (bag.getPayLoadManifests().isEmpty()) {
+			return false;
+		}
+		for (Manifest manifest : bag.getPayLoadManifests()) {
+			String algorithm = manifest.getAlgorithm().getMessageDigestName();
+			int matched = 0;
+			for (Map.Entry<Path, String> entry : manifest.getFileToChecksumMap().entrySet()) {
+				String key = CommonUtil.relativeKey(stagedRoot, entry.getKey());
+				PayloadManifest.Entry digests = expected.get(key);
+				if (digests == null || !entry.getValue().equalsIgnoreCase(digests.getDigest(algorithm))) {
+					Logger.getLogger(GACOM).log(Level.SEVERE, "{0} does not match the checksum taken earlier", key);
+					return false;
+				}
+				matched++;
+			}
+			if (matched != expected.size()) {
+				return false;
+			}
+		}
+		return true;
 	}
 
+	/**
+	 * bagInPlace moves everything staged below the bag root, including the data folder
+	 * created by TransferFiles, into the payload directory of the bag.
+	 *
+	 * @param bagRoot root of the bag
+	 * @return folder the staged data folder ends up in after bagging
+	 */
+	private Path stagedPayloadRoot(Path bagRoot) {
+		return bagRoot.resolve("data").resolve("data");
+	}
+
+	/**
+	 * Compare the staged copy with the source manifest.
+	 *
+	 * @param directory target directory
+	 * @return success if every source file was copied unchanged, error otherwise
+	 */
 	public String getTargetChecksum(File directory) {
-		targetChecksum = "";
-		for (File file : directory.listFiles()) {
-			if (!file.exists()) {
-				this.parent.UpdateResult("Something went wrong while copying data to destination.", 0);
-				Logger.getLogger(GACOM).log(Level.SEVERE, "Something went wrong while copying data to staging.");
-				Logger.getLogger(GACOM).log(Level.SEVERE, file.getName() + " not found at target destination");
-				return "error";
-			} else if (file.isFile()) {
-				targetChecksum += file.getName() + "_|_" + this.commonUtil.checkSum(file.getAbsolutePath()) + "\n";
-			} else if (file.isDirectory()) {
-				targetChecksum += this.commonUtil.getDirectoryChecksum(file);
+		long start = System.nanoTime();
+		this.hashingEngine.setVerifyReport(this.verifyReport);
+		try {
+			return this.compareTarget(new File(directory, "data"));
+		} finally {
+			this.hashingEngine.setVerifyReport(null);
+			this.verifyReport.passCompleted(System.nanoTime() - start);
+			for (String line : this.verifyReport.lines()) {
+				Logger.getLogger(GACOM).log(Level.INFO, line);
 			}
 		}
-		List<String> filterList = Arrays.asList(this.parent.sourceChecksum.split("\n"));
-		for (String str : filterList) {
-			if (!targetChecksum.contains(str)) {
-				String[] info = str.split("_|_");
-				if (this.totalTries == 3) {
-					this.parent.UpdateResult(info[0] + " either got corrupted or not copied to the destination", 0);
+	}
+
+	/**
+	 * Compare the staged data folder with the source manifest.
+	 *
+	 * @param payloadRoot staging data folder
+	 * @return success if every source file was copied unchanged, error otherwise
+	 */
+	private String compareTarget(File payloadRoot) {
+		if (!this.verifyLinks(payloadRoot)) {
+			return "error";
+		}
+		if (this.fastManifest != null) {
+			return this.verifyFast(payloadRoot);
+		}
+		PayloadManifest targetManifest = new PayloadManifest(this.parent.sourceManifest.getAlgorithms());
+		if (this.copyManifest != null && this.verifyReport.getMode() != VerifyReport.Mode.DIRECT) {
+			// digests were taken while copying, only the sizes come from the staged files
+			for (PayloadManifest.Entry entry : this.copyManifest.getEntries()) {
+				File file = new File(payloadRoot, entry.getPath());
+				if (file.exists()) {
+					targetManifest.put(entry.getPath(), file.length(), entry.getDigests());
 				}
-				Logger.getLogger(GACOM).log(Level.SEVERE, info[0] + " either got corrupted or not copied to the destination");
+			}
+		} else if (this.parent.sourceManifest.getChunkSize() > 0) {
+			return this.verifyChunks(payloadRoot);
+		} else {
+			// the staged copy is always read back, a cached digest of an earlier copy to the same path proves nothing
+			try {
+				targetManifest.addDirectory(payloadRoot, "", this.hashingEngine, new HashingEngine.HashListener() {
+					@Override
+					public void fileHashed(File file, Map<String, String> checksums, long bytes) {
+						Logger.getLogger(GACOM).log(Level.INFO, "Target checksum: ".concat(file.getName()));
+					}
+				}, IgnoreFilter.NONE, this.verifiedLinks);
+			} catch (InterruptedException ex) {
+				Logger.getLogger(GACOM).log(Level.SEVERE, "Target checksum interrupted", ex);
 				return "error";
 			}
 		}
-		return "success";
+		PayloadManifest.Comparison comparison = this.parent.sourceManifest.compare(targetManifest);
+		if (comparison.isMatch()) {
+			return "success";
+		}
+		this.reportMismatch(comparison.getMissing(), "was not copied to the destination");
+		this.reportMismatch(comparison.getCorrupt(), "got corrupted while copying");
+		this.reportMismatch(comparison.getExtra(), "is not part of the source");
+		return "error";
+	}
+
+	/**
+	 * Check that every file staged as a hard link is still the same file as its source.
+	 * Verified links take the digests of the source scan and are not read again.
+	 *
+	 * @param payloadRoot staging data folder
+	 * @return false if a staged link no longer is its source
+	 */
+	private boolean verifyLinks(File payloadRoot) {
+		this.verifiedLinks = new PayloadManifest(this.parent.sourceManifest.getAlgorithms());
+		if (this.linkedFiles == null || !this.config.getLinkVerifyInode()) {
+			return true;
+		}
+		List<String> broken = new ArrayList<String>();
+		for (String key : this.linkedFiles) {
+			PayloadManifest.Entry entry = this.parent.sourceManifest.get(key);
+			File sourceFile = this.sourceFile(key);
+			File staged = new File(payloadRoot, key);
+			if (entry == null) {
+				// not part of the source, reported as extra by the comparison
+				continue;
+			}
+			if (sourceFile == null || staged.length() != entry.getSize()
+					|| !LinkStaging.isSameFile(sourceFile.toPath(), staged.toPath())) {
+				broken.add(key);
+				continue;
+			}
+			this.verifiedLinks.put(key, entry.getSize(), entry.getDigests(), entry.getChunks());
+			if (this.copyManifest != null) {
+				this.copyManifest.put(key, entry.getSize(), entry.getDigests(), entry.getChunks());
+			}
+		}
+		Logger.getLogger(GACOM).log(Level.INFO, "{0} staged files are links to their source", this.verifiedLinks.size());
+		if (broken.isEmpty()) {
+			return true;
+		}
+		Collections.sort(broken);
+		this.reportMismatch(broken, "is no longer the same file as its source");
+		return false;
+	}
+
+	/**
+	 * Verify the staged copy by reading it back with the fast checksum only and comparing it with
+	 * the fast checksum taken from the source while copying. File names and sizes are still
+	 * checked against the source manifest, and so are the manifest digests if they were taken while copying.
+	 *
+	 * @param payloadRoot staging data folder
+	 * @return success if every source file was copied unchanged, error otherwise
+	 */
+	private String verifyFast(File payloadRoot) {
+		PayloadManifest targetManifest = new PayloadManifest(this.fastManifest.getAlgorithms());
+		try {
+			targetManifest.addDirectory(payloadRoot, "", this.hashingEngine, new HashingEngine.HashListener() {
+				@Override
+				public void fileHashed(File file, Map<String, String> checksums, long bytes) {
+					Logger.getLogger(GACOM).log(Level.INFO, "Target checksum: ".concat(file.getName()));
+				}
+			}, IgnoreFilter.NONE, this.verifiedLinks);
+		} catch (InterruptedException ex) {
+			Logger.getLogger(GACOM).log(Level.SEVERE, "Target checksum interrupted", ex);
+			return "error";
+		}
+		List<String> missing = new ArrayList<String>();
+		List<String> corrupt = new ArrayList<String>();
+		List<String> extra = new ArrayList<String>();
+		for (PayloadManifest.Entry expected : this.parent.sourceManifest.getEntries()) {
+			PayloadManifest.Entry found = targetManifest.get(expected.getPath());
+			PayloadManifest.Entry copied = this.fastManifest.get(expected.getPath());
+			if (found == null) {
+				missing.add(expected.getPath());
+			} else if (this.verifiedLinks.get(expected.getPath()) != null) {
+				// the staged file is the source file itself
+				continue;
+			} else if (found.getSize() != expected.getSize() || copied == null || !copied.matches(found)) {
+				corrupt.add(expected.getPath());
+			} else if (this.copyManifest != null && !this.sameSource(expected, this.copyManifest.get(expected.getPath()))) {
+				corrupt.add(expected.getPath());
+			}
+		}
+		for (PayloadManifest.Entry found : targetManifest.getEntries()) {
+			if (this.parent.sourceManifest.get(found.getPath()) == null) {
+				extra.add(found.getPath());
+			}
+		}
+		if (missing.isEmpty() && corrupt.isEmpty() && extra.isEmpty()) {
+			return "success";
+		}
+		Collections.sort(missing);
+		Collections.sort(corrupt);
+		Collections.sort(extra);
+		this.reportMismatch(missing, "was not copied to the destination");
+		this.reportMismatch(corrupt, "got corrupted while copying");
+		this.reportMismatch(extra, "is not part of the source");
+		return "error";
+	}
+
+	/**
+	 * Check that the manifest digests taken while copying match the ones of the scan,
+	 * so the source did not change in between.
+	 */
+	private boolean sameSource(PayloadManifest.Entry scanned, PayloadManifest.Entry copied) {
+		return copied != null && scanned.matches(copied);
+	}
+
+	/**
+	 * Verify the staged copy against the chunk CRCs of the source, all chunks in parallel.
+	 * Bad chunks are copied again from the source and verified once more,
+	 * only files that still fail are reported and cause a full retry.
+	 *
+	 * @param payloadRoot staging data folder
+	 * @return success if every source file was copied unchanged, error otherwise
+	 */
+	private String verifyChunks(File payloadRoot) {
+		PayloadManifest source = this.parent.sourceManifest;
+		long chunkSize = source.getChunkSize();
+		List<String> missing = new ArrayList<String>();
+		List<String> corrupt = new ArrayList<String>();
+		List<String> extra = new ArrayList<String>();
+		Map<File, long[]> expected = new HashMap<File, long[]>();
+		Map<File, String> keys = new HashMap<File, String>();
+		for (PayloadManifest.Entry entry : source.getEntries()) {
+			File file = new File(payloadRoot, entry.getPath());
+			if (!file.exists()) {
+				missing.add(entry.getPath());
+			} else if (this.verifiedLinks.get(entry.getPath()) != null) {
+				continue;
+			} else if (file.length() != entry.getSize() || entry.getChunks() == null) {
+				corrupt.add(entry.getPath());
+			} else {
+				expected.put(file, entry.getChunks());
+				keys.put(file, entry.getPath());
+			}
+		}
+		List<File> staged = new ArrayList<File>();
+		CommonUtil.listFiles(payloadRoot, staged);
+		for (File file : staged) {
+			String key = CommonUtil.relativeKey(payloadRoot.toPath(), file.toPath());
+			if (source.get(key) == null) {
+				extra.add(key);
+			}
+		}
+		try {
+			Map<File, List<Integer>> bad = this.hashingEngine.verifyChunks(expected, chunkSize);
+			Map<File, long[]> repaired = new HashMap<File, long[]>();
+			for (Map.Entry<File, List<Integer>> entry : bad.entrySet()) {
+				String key = keys.get(entry.getKey());
+				File sourceFile = this.sourceFile(key);
+				if (sourceFile == null) {
+					corrupt.add(key);
+					continue;
+				}
+				try {
+					FileTransfer.copyChunks(sourceFile, entry.getKey(), chunkSize, entry.getValue());
+					Logger.getLogger(GACOM).log(Level.INFO, "Copied {0} bad chunks of {1} again", new Object[]{entry.getValue().size(), key});
+					repaired.put(entry.getKey(), expected.get(entry.getKey()));
+				} catch (IOException ex) {
+					Logger.getLogger(GACOM).log(Level.SEVERE, "Could not copy chunks of " + key, ex);
+					corrupt.add(key);
+				}
+			}
+			for (File file : this.hashingEngine.verifyChunks(repaired, chunkSize).keySet()) {
+				corrupt.add(keys.get(file));
+			}
+		} catch (InterruptedException ex) {
+			Logger.getLogger(GACOM).log(Level.SEVERE, "Chunk verification interrupted", ex);
+			return "error";
+		}
+		if (missing.isEmpty() && corrupt.isEmpty() && extra.isEmpty()) {
+			return "success";
+		}
+		Collections.sort(missing);
+		Collections.sort(corrupt);
+		Collections.sort(extra);
+		this.reportMismatch(missing, "was not copied to the destination");
+		this.reportMismatch(corrupt, "got corrupted while copying");
+		this.reportMismatch(extra, "is not part of the source");
+		return "error";
+	}
+
+	/**
+	 * Find the source file a payload key was copied from.
+	 *
+	 * @param key path relative to the staging data folder
+	 * @return the source file or null
+	 */
+	private File sourceFile(String key) {
+		int slash = key.indexOf('/');
+		String name = slash < 0 ? key : key.substring(0, slash);
+		for (String source : this.sources) {
+			File sourceFile = new File(source);
+			if (sourceFile.getName().equals(name)) {
+				return new File(sourceFile.getAbsoluteFile().getParentFile(), key);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Log every path that failed the copy verification. Shown to the user after the last try.
+	 *
+	 * @param paths  failed paths
+	 * @param reason why they failed
+	 */
+	private void reportMismatch(List<String> paths, String reason) {
+		int shown = 0;
+		for (String path : paths) {
+			Logger.getLogger(GACOM).log(Level.SEVERE, path + " " + reason);
+			if (this.totalTries == 3 && shown < 10) {
+				this.parent.UpdateResult(path + " " + reason, 0);
+				shown++;
+			}
+		}
+		if (this.totalTries == 3 && paths.size() > shown) {
+			this.parent.UpdateResult("... and " + (paths.size() - shown) + " more", 0);
+		}
 	}
 
 	/**
@@ -803,6 +1331,9 @@ class BackgroundWorker extends SwingWorker<Integer, Void> {
 	 */
 	public Path TransferFiles() throws Exception {
             FileTransfer ft = new FileTransfer(parent);
+            ft.setCopyThreads(this.config.getCopyThreads(), this.config.getAutoTune());
+            ft.setIgnoreFilter(IgnoreFilter.compile(this.config.getFilters()));
+            ft.setAllocation(this.config.getSparseCopy(), this.config.getPreallocate());
             if (this.totalTries == 1) {
                 System.out.println("this.totalTries == " + this.totalTries);
                 Logger.getLogger(GACOM).log(Level.INFO, "Max Progress bar count: ".concat(Integer.toString(this.parent.totalFiles)));
@@ -827,6 +1358,33 @@ class BackgroundWorker extends SwingWorker<Integer, Void> {
             if (!Files.exists(folderTarget)) {
                 Files.createDirectories(folderTarget);
             }
+            this.verifyReport = new VerifyReport(VerifyReport.Mode.parse(this.config.getVerifyMode()));
+            boolean streaming = this.verifyReport.getMode() == VerifyReport.Mode.STREAMING;
+            if (this.config.getHashDuringCopy() || streaming) {
+                this.copyManifest = new PayloadManifest(this.parent.sourceManifest.getAlgorithms());
+                ft.setManifest(folderTarget, this.copyManifest);
+                if (streaming) {
+                    ft.setVerifyReport(this.verifyReport);
+                }
+            } else {
+                this.copyManifest = null;
+            }
+            String fastChecksum = FastChecksum.resolve(this.config.getCopyVerification());
+            if (fastChecksum != null && !streaming && this.parent.sourceManifest.getChunkSize() == 0) {
+                this.fastManifest = new PayloadManifest(Collections.singletonList(fastChecksum));
+                ft.setFastManifest(folderTarget, this.fastManifest);
+                this.verifyReport.setCopyChecksum(fastChecksum);
+            } else {
+                this.fastManifest = null;
+            }
+            if (LinkStaging.isEnabled(this.config.getStagingMode())) {
+                this.linkedFiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                ft.setLinking(folderTarget, this.linkedFiles, !this.config.getLinkVerifyInode());
+            } else {
+                this.linkedFiles = null;
+            }
+            TransferJournal journal = TransferJournal.open(this.target, TransferJournal.signature(this.sources));
+            ft.setJournal(folderTarget, journal);
             int index = 0;
             for (String source : this.sources) {
                 this.parent.UpdateResult(String.format("(%s/%s)Transfering files...", ++index, this.sources.size()), 0);
@@ -838,12 +1396,24 @@ class BackgroundWorker extends SwingWorker<Integer, Void> {
                 ft.setTargetPath(targetPath);
                 Path inputSource = sourceFile.toPath();
                 ft.setSourcePath(inputSource);
-                ft.Perform();
+                try {
+                    ft.Perform();
+                } catch (Exception ex) {
+                    ft.shutdown();
+                    journal.close();
+                    throw ex;
+                }
                 if(sourceFile.isDirectory()){
                     //restore the original attrs (including last modified date which would have just been modified)
                     copyFileAttributes(sourceFile.toPath(), targetPath);
                 }
             }
+            ft.shutdown();
+            journal.close();
+            if (journal.getResumed() > 0) {
+                Logger.getLogger(GACOM).log(Level.INFO, "Resumed transfer, {0} files were already staged", journal.getResumed());
+            }
+            this.verifyReport.tuned(ft.getTuning());
             return target;
 	}
 
@@ -1063,25 +1633,64 @@ class BackgroundWorker extends SwingWorker<Integer, Void> {
 	 * @return
 	 */
 	public int ValidateBag(String path) {
+		ValidationCache cache = ValidationCache.open(this.config);
+		if (cache == null) {
+			return this.validateBagContent(path);
+		}
+		try {
+			ValidationCache.Fingerprint fingerprint = null;
+			try {
+				fingerprint = ValidationCache.fingerprint(new File(path));
+				if (cache.isValid(fingerprint)) {
+					this.parent.UpdateResult("Bag unchanged since it last validated.", 0);
+					Logger.getLogger(GACOM).log(Level.INFO, "Bag {0} unchanged since it last validated, checksums not read", path);
+					return 1;
+				}
+			} catch (IOException ex) {
+				Logger.getLogger(GACOM).log(Level.WARNING, "Unable to fingerprint the bag", ex);
+			}
+			int valid = this.validateBagContent(path);
+			if (fingerprint != null) {
+				cache.remember(fingerprint, valid == 1);
+			}
+			return valid;
+		} finally {
+			cache.close();
+		}
+	}
+
+	/**
+	 * validate input bag, reading every file listed in its manifests
+	 *
+	 * @param path
+	 * @return 1 if valid, 0 otherwise
+	 */
+	private int validateBagContent(String path) {
             Path rootDir = Paths.get(path);
             BagReader reader = new BagReader();
             Bag bag;
-            String unzippedPath = null;
-            boolean requiresCleanUp = false;
             BagVerifier verifier = new BagVerifier();
             try {
                 if(path.toLowerCase().endsWith(".zip")) {
-                        unzippedPath = path.replace(".zip", "");
-                        ZipUtil.unpack(new File(path), new File(unzippedPath));
-                        rootDir = Paths.get(unzippedPath, Paths.get(unzippedPath).getFileName().toString());
-                        requiresCleanUp = true;
+                        // validated from the archive itself, nothing is unpacked
+                        String problem = this.verifyZipBag(path);
+                        if (problem != null) {
+                            this.parent.UpdateResult(problem, 0);
+                            return 0;
+                        }
+                        return 1;
                 }
                 bag = reader.read(rootDir);
                
-                verifier.isValid(bag, false);
+                verifier.isComplete(bag, false);
+                String corrupt = this.verifyManifests(bag);
+                if (corrupt != null) {
+                    this.parent.UpdateResult(corrupt, 0);
+                    return 0;
+                }
             } catch (IOException | UnparsableVersionException | UnsupportedAlgorithmException
-                            | MaliciousPathException | InvalidBagitFileFormatException | VerificationException
-                            | MissingBagitFileException | MissingPayloadManifestException | CorruptChecksumException
+                            | MaliciousPathException | InvalidBagitFileFormatException
+                            | MissingBagitFileException | MissingPayloadManifestException
                             | MissingPayloadDirectoryException | InterruptedException | FileNotInPayloadDirectoryException e) {
                 e.printStackTrace();
                 this.parent.UpdateResult(e.getMessage(), 0);
@@ -1089,14 +1698,109 @@ class BackgroundWorker extends SwingWorker<Integer, Void> {
             }
             finally {
                 verifier.close();
-                if(requiresCleanUp){
-                    retryDelete(unzippedPath);
-                    
-                }
             }
             return 1;
 	}
 
+	/**
+	 * Re-hash every file listed in the payload and tag manifests, reading each file once for all manifests.
+	 * Progress is shown by bytes on the unbagging progress bar.
+	 *
+	 * @param bag bag that passed the completeness check
+	 * @return description of the first mismatch, null if all files match
+	 * @throws InterruptedException
+	 */
+	private String verifyManifests(Bag bag) throws InterruptedException {
+		BagValidator validator = new BagValidator(this.hashingEngine, this.config.getValidateFailFast());
+		List<Manifest> manifests = new ArrayList<Manifest>(bag.getPayLoadManifests());
+		manifests.addAll(bag.getTagManifests());
+		for (Manifest manifest : manifests) {
+			for (Map.Entry<Path, String> entry : manifest.getFileToChecksumMap().entrySet()) {
+				validator.expect(entry.getKey().toFile(), manifest.getAlgorithm().getMessageDigestName(), entry.getValue());
+			}
+		}
+		// files unchanged since they were last read are not read again
+		FixityCache fixityCache = FixityCache.open(this.config);
+		if (fixityCache != null) {
+			fixityCache.load(bag.getRootDir().toFile());
+		}
+		validator.setFixityCache(fixityCache);
+		final int maximum = this.parent.unBaggingProgress.getMaximum();
+		final int value = this.parent.unBaggingProgress.getValue();
+		this.parent.unBaggingProgress.setMaximum(1000);
+		try {
+			return this.describe(validator.validate(this.validationProgress()));
+		} finally {
+			this.parent.unBaggingProgress.setMaximum(maximum);
+			this.parent.unBaggingProgress.setValue(value);
+			if (fixityCache != null) {
+				fixityCache.close();
+			}
+		}
+	}
+
+	/**
+	 * Validate a zipped bag straight from the archive, nothing is extracted.
+	 *
+	 * @param path .zip archive
+	 * @return description of the first problem, null if the bag is valid
+	 * @throws IOException if the archive cannot be read
+	 * @throws InterruptedException
+	 */
+	private String verifyZipBag(String path) throws IOException, InterruptedException {
+		try (ZipBag bag = ZipBag.open(new File(path))) {
+			String incomplete = bag.checkComplete();
+			if (incomplete != null) {
+				return incomplete;
+			}
+			final int maximum = this.parent.unBaggingProgress.getMaximum();
+			final int value = this.parent.unBaggingProgress.getValue();
+			this.parent.unBaggingProgress.setMaximum(1000);
+			try {
+				return this.describe(bag.validate(this.hashingEngine, this.config.getValidateFailFast(), this.validationProgress()));
+			} finally {
+				this.parent.unBaggingProgress.setMaximum(maximum);
+				this.parent.unBaggingProgress.setValue(value);
+			}
+		}
+	}
+
+	/**
+	 * Logs every validated file and shows the validated bytes on the unbagging progress bar, scaled to 1000.
+	 *
+	 * @return listener for the bag validator
+	 */
+	private BagValidator.ValidationListener validationProgress() {
+		return new BagValidator.ValidationListener() {
+			@Override
+			public void fileValidated(File file, boolean valid, long doneBytes, long totalBytes) {
+				if (valid) {
+					Logger.getLogger(GACOM).log(Level.INFO, "Validated checksum: ".concat(file.getName()));
+				} else {
+					Logger.getLogger(GACOM).log(Level.SEVERE, "Checksum does not match: ".concat(file.toString()));
+				}
+				parent.unBaggingProgress.setValue(totalBytes == 0 ? 1000 : (int) (doneBytes * 1000 / totalBytes));
+			}
+		};
+	}
+
+	/**
+	 * Describe the outcome of a bag validation.
+	 *
+	 * @param result validation result
+	 * @return description of the first problem, null if the bag is valid
+	 */
+	private String describe(BagValidator.Result result) {
+		Logger.getLogger(GACOM).log(Level.INFO, "Validated {0} files, {1} bytes", new Object[]{result.getFilesChecked(), String.valueOf(result.getBytesChecked())});
+		if (!result.getUnreadable().isEmpty()) {
+			return "File " + result.getUnreadable().get(0) + " could not be read.";
+		}
+		if (!result.getCorrupt().isEmpty()) {
+			return "File " + result.getCorrupt().get(0) + " is corrupt, its checksum does not match the manifest.";
+		}
+		return null;
+	}
+
 	/**
 	 * Recognize bag structure.
 	 *
@@ -1106,31 +1810,44 @@ class BackgroundWorker extends SwingWorker<Integer, Void> {
 	public int BagRecognition(String path) {
             Path rootDir = Paths.get(path);
             BagReader reader = new BagReader();
-            String unzippedPath = null;
-            boolean requiresCleanUp = false;
             int success = 1;
             try {
                     if(path.toLowerCase().endsWith(".zip")){
-                            unzippedPath = path.replace(".zip","");
-                            ZipUtil.unpack(new File(path), new File(unzippedPath));
-                            rootDir = Paths.get(unzippedPath, Paths.get(unzippedPath).getFileName().toString());
-                            reader.read(rootDir);
-                            requiresCleanUp = true;
+                            // only the central directory and the tag files are read
+                            try (ZipBag zipBag = ZipBag.open(new File(path), false)) {
+                                    String problem = zipBag.checkStructure();
+                                    if (problem != null) {
+                                            this.parent.UpdateResult(problem, 0);
+                                            return 0;
+                                    }
+                                    this.reportRecognizedBag(zipBag.getPayloadFiles(), zipBag.getMetadata("Payload-Oxum"));
+                            }
+                            return success;
                     }
-                    reader.read(rootDir);
+                    Bag bag = reader.read(rootDir);
+                    int files = bag.getPayLoadManifests().isEmpty() ? 0 : bag.getPayLoadManifests().iterator().next().getFileToChecksumMap().size();
+                    List<String> oxum = bag.getMetadata().get("Payload-Oxum");
+                    this.reportRecognizedBag(files, oxum == null || oxum.isEmpty() ? null : oxum.get(0));
             } catch (IOException | InvalidBagitFileFormatException | UnparsableVersionException
                             | UnsupportedAlgorithmException | MaliciousPathException e) {
                     e.printStackTrace();
                     this.parent.UpdateResult(e.getMessage(), 0);
                     success = 0;
             }
-            finally {
-                    if(requiresCleanUp){
-                        retryDelete(unzippedPath);
-                    }
-            }
             return success;
 	}
+
+	/**
+	 * Show what was found in a recognized bag.
+	 *
+	 * @param files       number of payload files
+	 * @param payloadOxum Payload-Oxum from bag-info.txt, may be null
+	 */
+	private void reportRecognizedBag(int files, String payloadOxum) {
+		String text = "Payload files: " + files + ", Payload-Oxum: " + (payloadOxum == null ? "not declared" : payloadOxum);
+		this.parent.UpdateResult(text, 0);
+		Logger.getLogger(GACOM).log(Level.INFO, text);
+	}
         
             /**
      * Retry delete in case external program has lock on target file.
@@ -16,6 +16,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.file.FileVisitResult;
@@ -24,12 +25,32 @@ import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import uk.sipperfly.persistent.Configurations;
-import uk.sipperfly.repository.ConfigurationsRepo;
 import static uk.sipperfly.ui.Exactly.GACOM;
 import uk.sipperfly.utils.CommonUtil;
+import uk.sipperfly.utils.ConcurrencyTuner;
+import uk.sipperfly.utils.FileCopier;
+import uk.sipperfly.utils.HashingEngine;
+import uk.sipperfly.utils.IgnoreFilter;
+import uk.sipperfly.utils.LinkStaging;
+import uk.sipperfly.utils.PayloadManifest;
+import uk.sipperfly.utils.ReadAhead;
+import uk.sipperfly.utils.TransferJournal;
+import uk.sipperfly.utils.VerifyReport;
 import static uk.sipperfly.utils.CommonUtil.copyFileAttributes;
 
 /**
@@ -42,6 +63,36 @@ class CopyDirVisitor extends SimpleFileVisitor<Path> {
 	private final Exactly parent;
 	private final Path fromPath;
 	private final Path toPath;
+	private Path payloadRoot;
+	private PayloadManifest manifest;
+	private VerifyReport verifyReport;
+	private PayloadManifest fastManifest;
+	private IgnoreFilter ignoreFilter = IgnoreFilter.NONE;
+	private Set<String> linked;
+	private Path linkRoot;
+	private boolean hashLinks;
+	private TransferJournal journal;
+	private Path journalRoot;
+	private boolean sparse;
+	private boolean preallocate;
+	private CompletionService<Long> copies;
+	private ConcurrencyTuner tuner;
+	private int pending;
+	/**
+	 * Copied directories in post-order, their attributes are restored once all copies are done.
+	 */
+	private final List<Path[]> directories = new ArrayList<Path[]>();
+
+	/**
+	 * Buffer size used when the file is hashed while it is copied.
+	 */
+	private static final int COPY_BUFFER_SIZE = 1024 * 1024;
+	private static final ThreadLocal<byte[]> COPY_BUFFERS = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[COPY_BUFFER_SIZE];
+		}
+	};
 
 	/**
 	 * Constructor for CopyDirVisitor
@@ -63,6 +114,129 @@ class CopyDirVisitor extends SimpleFileVisitor<Path> {
 
 	}
 
+	/**
+	 * Constructor for CopyDirVisitor that computes the digests of every file while it is copied.
+	 *
+	 * @param parent Pointer to the parent GUI for status updates
+	 * @param fromPath The source of the copy
+	 * @param toPath The destination of the copy
+	 * @param payloadRoot The staging data folder the manifest paths are relative to
+	 * @param manifest Receives the digests of each copied file
+	 */
+	public CopyDirVisitor(Exactly parent, Path fromPath, Path toPath, Path payloadRoot, PayloadManifest manifest) {
+		this(parent, fromPath, toPath);
+		if (payloadRoot == null
+				|| manifest == null) {
+			throw new IllegalArgumentException();
+		}
+		this.payloadRoot = payloadRoot;
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Flush every hashed copy to the device and record the time it took.
+	 *
+	 * @param verifyReport the report or null to leave flushing to the OS
+	 */
+	public void setVerifyReport(VerifyReport verifyReport) {
+		this.verifyReport = verifyReport;
+	}
+
+	/**
+	 * Also compute a fast checksum of every file while it is copied, to verify the copy with.
+	 *
+	 * @param payloadRoot The staging data folder the manifest paths are relative to
+	 * @param fastManifest Receives the CRC32C or CRC32 of each copied file
+	 */
+	public void setFastManifest(Path payloadRoot, PayloadManifest fastManifest) {
+		if (payloadRoot == null
+				|| fastManifest == null) {
+			throw new IllegalArgumentException();
+		}
+		this.payloadRoot = payloadRoot;
+		this.fastManifest = fastManifest;
+	}
+
+	/**
+	 * Skip the files the filter ignores.
+	 *
+	 * @param ignoreFilter The compiled ignore filter of the job
+	 */
+	public void setIgnoreFilter(IgnoreFilter ignoreFilter) {
+		this.ignoreFilter = ignoreFilter;
+	}
+
+	/**
+	 * Hard link read only files instead of copying them. The source and the target have to be on the same file system.
+	 *
+	 * @param payloadRoot The staging data folder the keys of linked files are relative to
+	 * @param linked Receives the key of every linked file
+	 * @param hashLinks Also hash linked files for the manifests, otherwise they are left out of them
+	 */
+	public void setLinking(Path payloadRoot, Set<String> linked, boolean hashLinks) {
+		if (payloadRoot == null
+				|| linked == null) {
+			throw new IllegalArgumentException();
+		}
+		this.linkRoot = payloadRoot;
+		this.linked = linked;
+		this.hashLinks = hashLinks;
+	}
+
+	/**
+	 * Record every staged file in the journal and skip the files it has recorded unchanged.
+	 *
+	 * @param payloadRoot The staging data folder the journal keys are relative to
+	 * @param journal The journal of the transfer
+	 */
+	public void setJournal(Path payloadRoot, TransferJournal journal) {
+		if (payloadRoot == null
+				|| journal == null) {
+			throw new IllegalArgumentException();
+		}
+		this.journalRoot = payloadRoot;
+		this.journal = journal;
+	}
+
+	/**
+	 * Choose how the space of the copies is allocated on the target.
+	 *
+	 * @param sparse Leave blocks of zeros as holes in the copies
+	 * @param preallocate Reserve the full size of each copy before writing it, ignored for sparse copies
+	 */
+	public void setAllocation(boolean sparse, boolean preallocate) {
+		this.sparse = sparse;
+		this.preallocate = preallocate && !sparse;
+	}
+
+	/**
+	 * Copy the files on a worker pool while this visitor walks the tree and creates the directories.
+	 * awaitCopies has to be called after the walk.
+	 *
+	 * @param executor The worker pool
+	 * @param tuner Receives the size of every copied file, may be null
+	 */
+	public void setExecutor(Executor executor, ConcurrencyTuner tuner) {
+		this.copies = new ExecutorCompletionService<Long>(executor);
+		this.tuner = tuner;
+	}
+
+	/**
+	 * Wait for the copies still running on the worker pool, then restore the attributes
+	 * of the copied directories, deepest first, as the copies change their modification times.
+	 *
+	 * @throws InterruptedException If the walking thread is interrupted
+	 */
+	public void awaitCopies() throws InterruptedException {
+		while (this.pending > 0) {
+			this.collect(this.copies.take());
+		}
+		for (Path[] directory : this.directories) {
+			CommonUtil.copyFileAttributes(directory[0], directory[1]);
+		}
+		this.directories.clear();
+	}
+
 	/**
 	 * Creates the target directories as we walk the tree.
 	 *
@@ -89,7 +263,12 @@ class CopyDirVisitor extends SimpleFileVisitor<Path> {
         public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
             //need to apply directory metadata after walk finishes so it persists
             Path targetPath = toPath.resolve(fromPath.relativize(dir));
-            CommonUtil.copyFileAttributes(fromPath, targetPath);
+            if (this.copies != null) {
+                // files of this directory may still be copying
+                this.directories.add(new Path[]{dir, targetPath});
+            } else {
+                CommonUtil.copyFileAttributes(dir, targetPath);
+            }
             return super.postVisitDirectory(dir, exc);
         }
 
@@ -113,32 +292,314 @@ class CopyDirVisitor extends SimpleFileVisitor<Path> {
 			return FileVisitResult.TERMINATE;
 		}
 
-		ConfigurationsRepo configRepo = new ConfigurationsRepo();
-		Configurations config = configRepo.getOneOrCreateOne();
-
-		boolean ignore = CommonUtil.checkIgnoreFiles(file.getFileName().toString(), config.getFilters());
+		boolean ignore = this.ignoreFilter.ignores(file, attrs);
 		if (!ignore) {
-			File destinationFile = new File(toPath.resolve(fromPath.relativize(file)).toString());
+			if (this.copies == null) {
+				this.copyFile(file);
+			} else {
+				final Path source = file;
+				this.copies.submit(new Callable<Long>() {
+					@Override
+					public Long call() {
+						if (parent.GetBackgroundWorker().isCancelled()) {
+							return 0L;
+						}
+						return copyFile(source);
+					}
+				});
+				this.pending++;
+				Future<Long> done;
+				while ((done = this.copies.poll()) != null) {
+					this.collect(done);
+				}
+			}
+		}
+		Logger.getLogger(GACOM).log(Level.INFO, "Count of Files: ".concat(Integer.toString(this.parent.tranferredFiles)));
+
+		return FileVisitResult.CONTINUE;
+	}
+
+	/**
+	 * Record a file that was staged as a hard link and count it in the parent GUI progress bar.
+	 */
+	private void linkedFile(Path file, File destinationFile) {
+		this.linked.add(CommonUtil.relativeKey(this.linkRoot, destinationFile.toPath()));
+		if (this.hashLinks && (this.manifest != null || this.fastManifest != null)) {
 			try {
-				copyFileUsingFileChannels(file.toFile(), destinationFile);
-				copyFileAttributes(file, destinationFile.toPath());
+				this.putDigests(destinationFile, HashingEngine.checkSums(file.toFile(), this.algorithms()));
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
+		}
+		synchronized (this.parent) {
 			this.parent.tranferredFiles = this.parent.tranferredFiles + 1;
 			this.parent.UpdateProgressBar(this.parent.tranferredFiles);
 		}
-		Logger.getLogger(GACOM).log(Level.INFO, "Count of Files: ".concat(Integer.toString(this.parent.tranferredFiles)));
+	}
 
-		return FileVisitResult.CONTINUE;
+	/**
+	 * Skip a file the interrupted transfer already staged, taking its digests from the journal.
+	 *
+	 * @return true if the file was staged before and did not change since
+	 */
+	private boolean resumeFile(Path file, File destinationFile, String key) {
+		TransferJournal.Entry entry = this.journal.done(key, file.toFile(), destinationFile);
+		if (entry == null) {
+			return false;
+		}
+		if (entry.isLinked()) {
+			if (this.linked == null || !LinkStaging.isSameFile(file, destinationFile.toPath())) {
+				return false;
+			}
+			this.linkedFile(file, destinationFile);
+			this.journal.skipped();
+			return true;
+		}
+		if (this.fastManifest != null && !entry.hasDigests(this.fastManifest.getAlgorithms())) {
+			return false;
+		}
+		if (this.manifest != null || this.fastManifest != null) {
+			Map<String, String> digests = new HashMap<String, String>(entry.getDigests());
+			if (this.manifest != null && (this.verifyReport == null || !entry.hasDigests(this.manifest.getAlgorithms()))) {
+				// only streamed copies were flushed before they were recorded, hash what reached the disk
+				try {
+					digests.putAll(HashingEngine.checkSums(destinationFile, this.manifest.getAlgorithms()));
+				} catch (Exception e) {
+					e.printStackTrace();
+					return false;
+				}
+			}
+			this.putDigests(destinationFile, digests);
+		}
+		synchronized (this.parent) {
+			this.parent.tranferredFiles = this.parent.tranferredFiles + 1;
+			this.parent.UpdateProgressBar(this.parent.tranferredFiles);
+		}
+		this.journal.skipped();
+		return true;
+	}
+
+	private List<String> algorithms() {
+		List<String> algorithms = new ArrayList<String>();
+		if (this.manifest != null) {
+			algorithms.addAll(this.manifest.getAlgorithms());
+		}
+		if (this.fastManifest != null) {
+			algorithms.addAll(this.fastManifest.getAlgorithms());
+		}
+		return algorithms;
+	}
+
+	private void putDigests(File destinationFile, Map<String, String> digests) {
+		String key = CommonUtil.relativeKey(this.payloadRoot, destinationFile.toPath());
+		if (this.manifest != null) {
+			this.manifest.put(key, destinationFile.length(), select(digests, this.manifest.getAlgorithms()));
+		}
+		if (this.fastManifest != null) {
+			this.fastManifest.put(key, destinationFile.length(), select(digests, this.fastManifest.getAlgorithms()));
+		}
+	}
+
+	private void collect(Future<Long> done) {
+		this.pending--;
+		try {
+			long bytes = done.get();
+			if (this.tuner != null) {
+				this.tuner.completed(bytes);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException ex) {
+			Logger.getLogger(GACOM).log(Level.SEVERE, "Copy failed", ex.getCause());
+		}
+	}
+
+	/**
+	 * Copies one file and its attributes and counts it in the parent GUI progress bar.
+	 * Runs on the walking thread or on a worker of the pool.
+	 *
+	 * @param file The path of the file to copy
+	 * @return bytes copied
+	 */
+	private long copyFile(Path file) {
+		File destinationFile = new File(toPath.resolve(fromPath.relativize(file)).toString());
+		String key = null;
+		if (this.journal != null) {
+			key = CommonUtil.relativeKey(this.journalRoot, destinationFile.toPath());
+			if (this.resumeFile(file, destinationFile, key)) {
+				return 0;
+			}
+			try {
+				// a staged file left by the interrupted transfer may be a hard link to the source
+				Files.deleteIfExists(destinationFile.toPath());
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (this.linked != null && LinkStaging.isImmutable(file) && LinkStaging.link(file, destinationFile.toPath())) {
+			this.linkedFile(file, destinationFile);
+			if (this.journal != null) {
+				this.journal.record(key, file.toFile(), true, null);
+			}
+			return 0;
+		}
+		try {
+			Map<String, String> digests = null;
+			if (this.manifest != null || this.fastManifest != null) {
+				// one pass over the source feeds the manifest digests and the fast checksum
+				digests = copyAndHashFile(file.toFile(), destinationFile, this.algorithms(), this.verifyReport,
+						this.sparse, this.preallocate);
+				this.putDigests(destinationFile, digests);
+			} else {
+				copyFileUsingFileChannels(file.toFile(), destinationFile);
+			}
+			copyFileAttributes(file, destinationFile.toPath());
+			if (this.journal != null) {
+				this.journal.record(key, file.toFile(), false, digests);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		synchronized (this.parent) {
+			this.parent.tranferredFiles = this.parent.tranferredFiles + 1;
+			this.parent.UpdateProgressBar(this.parent.tranferredFiles);
+		}
+		return destinationFile.length();
 	}
 
-	private static void copyFileUsingFileChannels(File source, File destinationFile)
+	/**
+	 * Copies the file and feeds every block into each digest on the way through,
+	 * so the payload is read only once for both the copy and all of its checksums.
+	 *
+	 * @param source The file to copy
+	 * @param destinationFile The target file
+	 * @param algorithms MessageDigest algorithm names
+	 * @param verifyReport flush the copy to the device and record it, may be null
+	 * @param sparse Leave blocks of zeros as holes
+	 * @param preallocate Reserve the full size before writing
+	 * @return algorithm to hex digest of the copied bytes
+	 * @throws IOException If the file cannot be copied
+	 */
+	private static Map<String, String> copyAndHashFile(File source, File destinationFile, List<String> algorithms, VerifyReport verifyReport,
+			boolean sparse, boolean preallocate) throws IOException {
+		MessageDigest[] digests;
+		try {
+			digests = HashingEngine.createDigests(algorithms);
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IOException(ex);
+		}
+		RandomAccessFile output = new RandomAccessFile(destinationFile, "rw");
+		FileChannel outputChannel = output.getChannel();
+		FileLock lock = outputChannel.lock();
+		try {
+			outputChannel.truncate(0);
+			if (preallocate) {
+				FileCopier.preallocate(output, source.length());
+			}
+			long position = 0;
+			if (ReadAhead.isEnabledFor(source.length())) {
+				// the next blocks are read while the current one is hashed and written
+				try (ReadAhead reader = new ReadAhead(source.toPath(), ReadAhead.getDefaultDepth())) {
+					ByteBuffer next;
+					while ((next = reader.next()) != null) {
+						for (MessageDigest md : digests) {
+							md.update(next.duplicate());
+						}
+						position += writeBlock(outputChannel, next, position, sparse);
+					}
+				}
+			} else {
+				byte[] block = COPY_BUFFERS.get();
+				ByteBuffer buffer = ByteBuffer.wrap(block);
+				try (FileChannel inputChannel = new FileInputStream(source).getChannel()) {
+					int read;
+					while ((read = inputChannel.read(buffer)) != -1) {
+						for (MessageDigest md : digests) {
+							md.update(block, 0, read);
+						}
+						buffer.flip();
+						position += writeBlock(outputChannel, buffer, position, sparse);
+						buffer.clear();
+					}
+				}
+			}
+			if (sparse) {
+				FileCopier.setSize(outputChannel, position);
+			} else if (outputChannel.size() > position) {
+				// the source shrank since it was preallocated
+				outputChannel.truncate(position);
+			}
+			if (verifyReport != null) {
+				verifyReport.fileStreamed(outputChannel.size());
+				long start = System.nanoTime();
+				outputChannel.force(true);
+				verifyReport.fileSynced(System.nanoTime() - start);
+			}
+		} finally {
+			if (lock != null) {
+				lock.release();
+			}
+			outputChannel.close();
+		}
+		return HashingEngine.toHex(algorithms, digests);
+	}
+
+	private static int writeBlock(FileChannel outputChannel, ByteBuffer block, long position, boolean sparse) throws IOException {
+		int length = block.remaining();
+		if (sparse) {
+			FileCopier.writeSparse(outputChannel, block, position);
+		} else {
+			while (block.hasRemaining()) {
+				outputChannel.write(block, position + length - block.remaining());
+			}
+		}
+		return length;
+	}
+
+	private static Map<String, String> select(Map<String, String> digests, List<String> algorithms) {
+		Map<String, String> selected = new HashMap<String, String>();
+		for (String algorithm : algorithms) {
+			selected.put(algorithm, digests.get(algorithm));
+		}
+		return selected;
+	}
+
+	/**
+	 * Copies the file in chunks, logging the progress of large files and stopping between chunks
+	 * when the transfer is cancelled.
+	 *
+	 * @param source The file to copy
+	 * @param destinationFile The target file
+	 * @throws IOException If the file cannot be copied completely
+	 */
+	private void copyFileUsingFileChannels(final File source, File destinationFile)
 			throws IOException {
-            FileChannel outputChannel = new RandomAccessFile(destinationFile, "rw").getChannel();
+            RandomAccessFile output = new RandomAccessFile(destinationFile, "rw");
+            FileChannel outputChannel = output.getChannel();
             FileLock lock = outputChannel.lock();
             try (FileChannel inputChannel = new FileInputStream(source).getChannel()) {
-                outputChannel.transferFrom(inputChannel, 0, inputChannel.size());
+                FileCopier.Progress progress = new FileCopier.Progress() {
+                    @Override
+                    public boolean copied(long copied, long size) {
+                        if (size > FileCopier.CHUNK_SIZE) {
+                            Logger.getLogger(GACOM).log(Level.INFO, String.format("Copying %s: %d of %d MB",
+                                    source.getName(), copied / (1024 * 1024), size / (1024 * 1024)));
+                        }
+                        return !parent.GetBackgroundWorker().isCancelled();
+                    }
+                };
+                if (this.sparse) {
+                    long holes = FileCopier.copySparse(inputChannel, outputChannel, progress);
+                    if (holes > 0) {
+                        Logger.getLogger(GACOM).log(Level.FINE, String.format("Copied %s leaving %d MB of holes",
+                                source.getName(), holes / (1024 * 1024)));
+                    }
+                } else {
+                    if (this.preallocate) {
+                        FileCopier.preallocate(output, inputChannel.size());
+                    }
+                    FileCopier.copy(inputChannel, outputChannel, progress);
+                }
             } finally {
                 if (lock != null) {
                     lock.release();
@@ -23,6 +23,7 @@ import java.util.logging.FileHandler;
 import java.util.logging.SimpleFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CancellationException;
 import java.util.logging.Level;
 import javax.swing.ImageIcon;
@@ -40,6 +41,12 @@ import org.apache.commons.io.FileUtils;
 import uk.sipperfly.utils.BagInfoList;
 import uk.sipperfly.utils.EmailList;
 import uk.sipperfly.utils.EntryList;
+import uk.sipperfly.utils.FixityAuditor;
+import uk.sipperfly.utils.FixityCache;
+import uk.sipperfly.utils.HashingEngine;
+import uk.sipperfly.utils.IgnoreFilter;
+import uk.sipperfly.utils.PayloadManifest;
+import uk.sipperfly.utils.ReadAhead;
 import uk.sipperfly.utils.MyPainter;
 import java.awt.Image;
 import java.awt.Toolkit;
@@ -91,7 +98,7 @@ public class Exactly extends javax.swing.JFrame {
 	public int[] bag_size;
 	public int metadateUpdated = 0;
 	public StringBuilder fileSystem;
-	public String sourceChecksum;
+	public PayloadManifest sourceManifest;
 
 	/**
 	 * Creates new form MainFrame
@@ -117,6 +124,7 @@ public class Exactly extends javax.swing.JFrame {
 		} catch (IOException ex) {
 			Logger.getLogger(GACOM).log(Level.SEVERE, null, ex);
 		}
+		FixityAuditor.start();
 		if (isMacOs) {
 			try {
 				Class util = Class.forName("com.apple.eawt.Application");
@@ -2327,7 +2335,19 @@ public class Exactly extends javax.swing.JFrame {
 		long size = 0;
 		ConfigurationsRepo configRepo = new ConfigurationsRepo();
 		Configurations config = configRepo.getOneOrCreateOne();
-		sourceChecksum = "";
+		sourceManifest = new PayloadManifest(CommonUtil.parseAlgorithms(config.getManifestAlgorithms()), config.getChunkSize() * 1024L * 1024L);
+		ReadAhead.setDefaultDepth(config.getReadAheadDepth());
+		HashingEngine hashingEngine = new HashingEngine(config.getHashThreads());
+		hashingEngine.setAutoTune(config.getAutoTune());
+		IgnoreFilter ignoreFilter = IgnoreFilter.compile(config.getFilters());
+		FixityCache fixityCache = FixityCache.open(config);
+		hashingEngine.setFixityCache(fixityCache);
+		HashingEngine.HashListener scanListener = new HashingEngine.HashListener() {
+			@Override
+			public void fileHashed(File file, Map<String, String> checksums, long bytes) {
+				Logger.getLogger(GACOM).log(Level.INFO, "Source checksum: ".concat(file.getName()));
+			}
+		};
                 System.out.println( "before dir scan" );
                 UpdateResult("Started Directory scanning process.", 1);
 		for (String directory : directories) {
@@ -2338,16 +2358,38 @@ public class Exactly extends javax.swing.JFrame {
 				File f = new File(directory);
 				if (!f.exists()) {
 					UpdateResult("Must choose a valid input folder(s).", 1);
+					hashingEngine.shutdown();
+					if (fixityCache != null) {
+						fixityCache.close();
+					}
 					return;
 				} else if (f.isFile()) {
-                                        
+                                        if (ignoreFilter.ignores(f)) {
+                                                // the copy leaves it out as well
+                                                continue;
+                                        }
 						this.totalFiles = this.totalFiles + 1;
-						sourceChecksum += f.getName() + "_|_" + commonUtil.checkSum(f.getAbsolutePath()) + "\n";
+						if (fixityCache != null) {
+							fixityCache.load(f);
+						}
+						sourceManifest.addFile(f, f.getName(), hashingEngine);
                                                 System.out.println( "File: " + f.getName() );
 				} else {
-					this.totalFiles = this.totalFiles + commonUtil.countFilesInDirectory(f, config.getFilters());
+					this.totalFiles = this.totalFiles + CommonUtil.countFilesInDirectory(f, ignoreFilter);
                                         System.out.println( "Dir Files count: " + this.totalFiles );
-					sourceChecksum += commonUtil.getDirectoryChecksum(f);
+					try {
+						if (fixityCache != null) {
+							fixityCache.load(f);
+						}
+						sourceManifest.addDirectory(f, f.getName() + "/", hashingEngine, scanListener, ignoreFilter);
+					} catch (InterruptedException ex) {
+						hashingEngine.shutdown();
+						if (fixityCache != null) {
+							fixityCache.close();
+						}
+						UpdateResult("Scanning interrupted.", 1);
+						return;
+					}
 				}
 				this.uIManager.validateFolderName(f);
 
@@ -2382,6 +2424,10 @@ public class Exactly extends javax.swing.JFrame {
 				}
 			}
 		}
+		hashingEngine.shutdown();
+		if (fixityCache != null) {
+			fixityCache.close();
+		}
                 UpdateResult("Scanning process completed.", 1);
 		if (invalidNames != null && invalidNames.length() > 0) {
 			UpdateResult("Following Folder name(s) contain special characters < > \\ / ? * | \" :", 1);
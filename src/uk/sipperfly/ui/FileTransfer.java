@@ -12,12 +12,31 @@
  */
 package uk.sipperfly.ui;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import static uk.sipperfly.ui.Exactly.GACOM;
+import uk.sipperfly.utils.CommonUtil;
+import uk.sipperfly.utils.ConcurrencyTuner;
+import uk.sipperfly.utils.IgnoreFilter;
+import uk.sipperfly.utils.LinkStaging;
+import uk.sipperfly.utils.PayloadManifest;
+import uk.sipperfly.utils.TransferJournal;
+import uk.sipperfly.utils.VerifyReport;
 
 /**
  * This class walks the file tree of the source, invoking a visitor pattern on each file.
@@ -26,9 +45,30 @@ import static uk.sipperfly.ui.Exactly.GACOM;
  */
 class FileTransfer {
 
+	/**
+	 * Copy threads when none are configured, enough to hide the per file latency of a network share.
+	 */
+	private static final int DEFAULT_COPY_THREADS = 4;
+
 	private Path source;
 	private Path target;
 	private final Exactly parent;
+	private Path payloadRoot;
+	private PayloadManifest manifest;
+	private VerifyReport verifyReport;
+	private PayloadManifest fastManifest;
+	private int copyThreads = 1;
+	private boolean autoTune;
+	private ThreadPoolExecutor copyPool;
+	private IgnoreFilter ignoreFilter = IgnoreFilter.NONE;
+	private Path linkRoot;
+	private Set<String> linked;
+	private boolean hashLinks;
+	private Path journalRoot;
+	private TransferJournal journal;
+	private boolean sparse;
+	private boolean preallocate;
+	private final List<String> tuning = new ArrayList<String>();
 
 	/**
 	 * Constructor for FileTransfer
@@ -62,6 +102,111 @@ class FileTransfer {
 		this.source = source;
 	}
 
+	/**
+	 * Compute the digests of each file while it is copied.
+	 *
+	 * @param payloadRoot staging data folder the manifest paths are relative to
+	 * @param manifest receives the digests of each copied file
+	 */
+	public void setManifest(Path payloadRoot, PayloadManifest manifest) {
+		this.payloadRoot = payloadRoot;
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Flush every copied file to the device and record it, for the STREAMING verify mode.
+	 *
+	 * @param verifyReport receives the flush times
+	 */
+	public void setVerifyReport(VerifyReport verifyReport) {
+		this.verifyReport = verifyReport;
+	}
+
+	/**
+	 * Compute a fast checksum of each file while it is copied, to verify the copy with.
+	 *
+	 * @param payloadRoot staging data folder the manifest paths are relative to
+	 * @param fastManifest receives the CRC32C or CRC32 of each copied file
+	 */
+	public void setFastManifest(Path payloadRoot, PayloadManifest fastManifest) {
+		this.payloadRoot = payloadRoot;
+		this.fastManifest = fastManifest;
+	}
+
+	/**
+	 * Leave out the files the filter ignores.
+	 *
+	 * @param ignoreFilter the compiled ignore filter of the job
+	 */
+	public void setIgnoreFilter(IgnoreFilter ignoreFilter) {
+		this.ignoreFilter = ignoreFilter;
+	}
+
+	/**
+	 * Hard link read only files instead of copying them wherever the source is on the target's file system.
+	 *
+	 * @param payloadRoot staging data folder the keys of linked files are relative to
+	 * @param linked receives the key of every linked file
+	 * @param hashLinks also hash linked files for the manifests taken while copying
+	 */
+	public void setLinking(Path payloadRoot, Set<String> linked, boolean hashLinks) {
+		this.linkRoot = payloadRoot;
+		this.linked = linked;
+		this.hashLinks = hashLinks;
+	}
+
+	/**
+	 * Record every staged file in the journal, so an interrupted transfer can be resumed.
+	 *
+	 * @param payloadRoot staging data folder the journal keys are relative to
+	 * @param journal the journal of the transfer
+	 */
+	public void setJournal(Path payloadRoot, TransferJournal journal) {
+		this.journalRoot = payloadRoot;
+		this.journal = journal;
+	}
+
+	/**
+	 * Choose how the space of the copies is allocated on the drop location.
+	 *
+	 * @param sparse leave blocks of zeros as holes in the copies
+	 * @param preallocate reserve the full size of each copy before writing it
+	 */
+	public void setAllocation(boolean sparse, boolean preallocate) {
+		this.sparse = sparse;
+		this.preallocate = preallocate;
+	}
+
+	/**
+	 * Copy the files of each source on a pool of worker threads.
+	 *
+	 * @param copyThreads number of worker threads, 0 or less to start with the default
+	 * @param autoTune adjust the number of threads to the throughput of each source
+	 */
+	public void setCopyThreads(int copyThreads, boolean autoTune) {
+		this.copyThreads = copyThreads < 1 ? DEFAULT_COPY_THREADS : copyThreads;
+		this.autoTune = autoTune;
+	}
+
+	/**
+	 * Get the thread counts the auto-tuner chose for the copies so far.
+	 *
+	 * @return lines for the job report
+	 */
+	public List<String> getTuning() {
+		return this.tuning;
+	}
+
+	/**
+	 * Stop the worker threads.
+	 */
+	public void shutdown() {
+		if (this.copyPool != null) {
+			this.copyPool.shutdown();
+			this.copyPool = null;
+		}
+	}
+
 	/**
 	 * Performs the actual file transfer
 	 *
@@ -72,8 +217,132 @@ class FileTransfer {
 		String[] params = new String[]{source.toString(), target.toString()};
 		Logger.getLogger(GACOM).log(Level.INFO, "Copying from {0} to {1}", params);
 		// walk the tree copying each subfolder and files
-		Files.walkFileTree(source, new CopyDirVisitor(parent, source, target));
+		CopyDirVisitor visitor;
+		if (this.manifest != null) {
+			visitor = new CopyDirVisitor(parent, source, target, payloadRoot, manifest);
+			visitor.setVerifyReport(this.verifyReport);
+		} else {
+			visitor = new CopyDirVisitor(parent, source, target);
+		}
+		if (this.fastManifest != null) {
+			visitor.setFastManifest(payloadRoot, this.fastManifest);
+		}
+		visitor.setIgnoreFilter(this.ignoreFilter);
+		visitor.setAllocation(this.sparse, this.preallocate);
+		if (this.journal != null) {
+			visitor.setJournal(this.journalRoot, this.journal);
+		}
+		if (this.linked != null) {
+			if (LinkStaging.sameStore(source, target)) {
+				visitor.setLinking(this.linkRoot, this.linked, this.hashLinks);
+			} else {
+				Logger.getLogger(GACOM).log(Level.INFO, "{0} is on another file system than the drop location, copying it", source);
+			}
+		}
+		if (this.copyThreads < 2 && !this.autoTune) {
+			Files.walkFileTree(source, visitor);
+			return true;
+		}
+		// the walk creates the directories and queues the files, the pool copies them
+		final ThreadPoolExecutor pool = this.pool();
+		ConcurrencyTuner tuner = null;
+		if (this.autoTune) {
+			tuner = ConcurrencyTuner.forPath("copy", source, this.copyThreads, new ConcurrencyTuner.Resizer() {
+				@Override
+				public void resize(int threads) {
+					resizePool(pool, threads);
+				}
+			});
+		} else {
+			resizePool(pool, this.copyThreads);
+		}
+		visitor.setExecutor(pool, tuner);
+		try {
+			Files.walkFileTree(source, visitor);
+		} finally {
+			visitor.awaitCopies();
+			if (tuner != null) {
+				tuner.finish();
+				this.tuning.addAll(tuner.getDecisions());
+			}
+		}
 		return true;
 	}
 
+	private ThreadPoolExecutor pool() {
+		if (this.copyPool == null) {
+			final AtomicInteger count = new AtomicInteger();
+			int threads = Math.max(this.copyThreads, ConcurrencyTuner.MAX_THREADS);
+			// a full queue makes the walker copy the next file itself, which also holds it back
+			this.copyPool = new ThreadPoolExecutor(this.copyThreads, this.copyThreads, 30L, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(threads * 4),
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "exactly-copy-" + count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					},
+					new ThreadPoolExecutor.CallerRunsPolicy());
+			this.copyPool.allowCoreThreadTimeOut(true);
+		}
+		return this.copyPool;
+	}
+
+	private static void resizePool(ThreadPoolExecutor pool, int threads) {
+		threads = Math.max(1, threads);
+		if (threads > pool.getMaximumPoolSize()) {
+			pool.setMaximumPoolSize(threads);
+			pool.setCorePoolSize(threads);
+		} else {
+			pool.setCorePoolSize(threads);
+			pool.setMaximumPoolSize(threads);
+		}
+	}
+
+	/**
+	 * Copy only the given chunks of a file over an existing copy of the same size.
+	 * A copy that inherited the read only attribute of its source is made writable for the
+	 * repair, and the attributes of the source are copied to it again afterwards.
+	 * A copy staged as a hard link is the source itself and is never written to.
+	 *
+	 * @param source The file to copy from
+	 * @param target The existing copy
+	 * @param chunkSize chunk size in bytes
+	 * @param chunks indexes of the chunks to copy
+	 * @throws IOException If the chunks cannot be copied
+	 */
+	public static void copyChunks(File source, File target, long chunkSize, List<Integer> chunks) throws IOException {
+		if (LinkStaging.isSameFile(source.toPath(), target.toPath())) {
+			throw new IOException(target + " is a hard link to its source, it cannot be repaired from it");
+		}
+		if (!target.canWrite() && !target.setWritable(true)) {
+			throw new IOException(target + " is read only and cannot be made writable");
+		}
+		try {
+			writeChunks(source, target, chunkSize, chunks);
+		} finally {
+			CommonUtil.copyFileAttributes(source.toPath(), target.toPath());
+		}
+	}
+
+	private static void writeChunks(File source, File target, long chunkSize, List<Integer> chunks) throws IOException {
+		try (FileChannel input = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+				FileChannel output = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+			long size = input.size();
+			for (int index : chunks) {
+				long position = index * chunkSize;
+				long end = Math.min(position + chunkSize, size);
+				while (position < end) {
+					long copied = input.transferTo(position, end - position, output.position(position));
+					if (copied <= 0) {
+						throw new IOException("Could not copy chunk " + index + " of " + source);
+					}
+					position += copied;
+				}
+			}
+			output.force(false);
+		}
+	}
 }
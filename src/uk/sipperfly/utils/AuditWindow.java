@@ -0,0 +1,112 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Daily time windows in which background work may run, i.e. "22:00-06:00, 12:00-13:00".
+ * A window may wrap around midnight. No windows means always open.
+ *
+ * @author Nouman Tayyab
+ */
+public class AuditWindow {
+
+	private static String GACOM = "com.UKExactly";
+	private static final int DAY_MINUTES = 24 * 60;
+	/**
+	 * Start and end of every window in minutes after midnight.
+	 */
+	private final List<int[]> windows = new ArrayList<int[]>();
+
+	/**
+	 * Parse configured windows, invalid ones are logged and ignored.
+	 *
+	 * @param value comma separated HH:mm-HH:mm ranges, empty for always open
+	 * @return the windows
+	 */
+	public static AuditWindow parse(String value) {
+		AuditWindow window = new AuditWindow();
+		if (value == null) {
+			return window;
+		}
+		for (String range : value.split(",")) {
+			if (range.trim().isEmpty()) {
+				continue;
+			}
+			String[] ends = range.trim().split("-");
+			try {
+				if (ends.length != 2) {
+					throw new NumberFormatException(range);
+				}
+				window.windows.add(new int[]{minutes(ends[0]), minutes(ends[1])});
+			} catch (NumberFormatException ex) {
+				Logger.getLogger(GACOM).log(Level.WARNING, "Ignoring audit window: {0}", range);
+			}
+		}
+		return window;
+	}
+
+	private static int minutes(String time) {
+		String[] parts = time.trim().split(":");
+		int hours = Integer.parseInt(parts[0]);
+		int minutes = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+		if (hours < 0 || hours > 24 || minutes < 0 || minutes > 59) {
+			throw new NumberFormatException(time);
+		}
+		return (hours * 60 + minutes) % DAY_MINUTES;
+	}
+
+	/**
+	 * Milliseconds until the next window opens.
+	 *
+	 * @param now current time in milliseconds
+	 * @return 0 if a window is open now
+	 */
+	public long millisUntilOpen(long now) {
+		if (this.windows.isEmpty()) {
+			return 0;
+		}
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(now);
+		int minute = calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+		int wait = DAY_MINUTES;
+		for (int[] window : this.windows) {
+			boolean open = window[0] <= window[1]
+					? minute >= window[0] && minute < window[1]
+					: minute >= window[0] || minute < window[1];
+			if (open || window[0] == window[1]) {
+				return 0;
+			}
+			wait = Math.min(wait, (window[0] - minute + DAY_MINUTES) % DAY_MINUTES);
+		}
+		long intoMinute = calendar.get(Calendar.SECOND) * 1000L + calendar.get(Calendar.MILLISECOND);
+		return wait * 60000L - intoMinute;
+	}
+
+	/**
+	 * Sleep until a window is open.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void await() throws InterruptedException {
+		long wait;
+		while ((wait = this.millisUntilOpen(System.currentTimeMillis())) > 0) {
+			Thread.sleep(Math.min(wait, 60000L));
+		}
+	}
+}
@@ -0,0 +1,227 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Tag files of a bag, read without the bagit library so that a bag can be inspected
+ * wherever its files live. Subclasses supply the files, paths are relative to the bag root.
+ *
+ * @author Nouman Tayyab
+ */
+public abstract class BagSource implements Closeable {
+
+	protected final Map<String, String> bagit = new LinkedHashMap<String, String>();
+	protected final Map<String, String> metadata = new LinkedHashMap<String, String>();
+	protected final Map<String, Map<String, String>> payloadManifests = new LinkedHashMap<String, Map<String, String>>();
+	protected final Map<String, Map<String, String>> tagManifests = new LinkedHashMap<String, Map<String, String>>();
+	private final boolean manifestsRead;
+
+	/**
+	 * Constructor for BagSource
+	 *
+	 * @param manifestsRead false to only note which manifests exist
+	 */
+	protected BagSource(boolean manifestsRead) {
+		this.manifestsRead = manifestsRead;
+	}
+
+	/**
+	 * Open a file of the bag.
+	 *
+	 * @param path path relative to the bag root, '/' separated
+	 * @return stream of the file content
+	 * @throws IOException if the file is missing or cannot be read
+	 */
+	public abstract InputStream open(String path) throws IOException;
+
+	/**
+	 * Names of the files directly in the bag root.
+	 *
+	 * @return file names
+	 */
+	protected abstract Collection<String> rootFiles();
+
+	/**
+	 * Read bagit.txt, bag-info.txt and the manifests.
+	 *
+	 * @throws IOException
+	 */
+	protected void readTagFiles() throws IOException {
+		this.readProperties("bagit.txt", StandardCharsets.UTF_8, this.bagit);
+		Charset charset = StandardCharsets.UTF_8;
+		String encoding = this.bagit.get("Tag-File-Character-Encoding");
+		if (encoding != null && Charset.isSupported(encoding)) {
+			charset = Charset.forName(encoding);
+		}
+		Collection<String> names = this.rootFiles();
+		if (names.contains("bag-info.txt")) {
+			this.readProperties("bag-info.txt", charset, this.metadata);
+		}
+		for (String path : names) {
+			if (!path.endsWith(".txt")) {
+				continue;
+			}
+			if (path.startsWith("manifest-")) {
+				this.payloadManifests.put(algorithmOf(path.substring("manifest-".length())), this.readManifest(path, charset));
+			} else if (path.startsWith("tagmanifest-")) {
+				this.tagManifests.put(algorithmOf(path.substring("tagmanifest-".length())), this.readManifest(path, charset));
+			}
+		}
+	}
+
+	/**
+	 * MessageDigest name of a manifest, i.e. "sha256.txt" gives "SHA-256".
+	 */
+	private static String algorithmOf(String fileName) {
+		String name = fileName.substring(0, fileName.length() - ".txt".length()).toUpperCase(Locale.ROOT);
+		if (name.startsWith("SHA") && name.length() > 3 && name.charAt(3) != '-') {
+			return "SHA-" + name.substring(3);
+		}
+		return name;
+	}
+
+	private BufferedReader reader(String path, Charset charset) throws IOException {
+		return new BufferedReader(new InputStreamReader(this.open(path), charset));
+	}
+
+	/**
+	 * Read "Label: value" lines, continuation lines start with white space.
+	 */
+	private void readProperties(String path, Charset charset, Map<String, String> properties) throws IOException {
+		try (BufferedReader reader = this.reader(path, charset)) {
+			String label = null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.isEmpty() && Character.isWhitespace(line.charAt(0)) && label != null) {
+					properties.put(label, properties.get(label) + " " + line.trim());
+					continue;
+				}
+				int colon = line.indexOf(':');
+				if (colon > 0) {
+					label = line.substring(0, colon).trim();
+					if (!properties.containsKey(label)) {
+						properties.put(label, line.substring(colon + 1).trim());
+					}
+				}
+			}
+		}
+	}
+
+	private Map<String, String> readManifest(String path, Charset charset) throws IOException {
+		boolean encoded = this.isVersionOneOrLater();
+		Map<String, String> manifest = new LinkedHashMap<String, String>();
+		if (!this.manifestsRead) {
+			return manifest;
+		}
+		try (BufferedReader reader = this.reader(path, charset)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.trim().split("\\s+", 2);
+				if (parts.length != 2) {
+					continue;
+				}
+				String file = parts[1].replace('\\', '/');
+				if (file.startsWith("*")) {
+					file = file.substring(1);
+				}
+				if (encoded) {
+					file = file.replace("%0A", "\n").replace("%0D", "\r").replace("%25", "%");
+				}
+				manifest.put(file, parts[0]);
+			}
+		}
+		return manifest;
+	}
+
+	private boolean isVersionOneOrLater() {
+		String version = this.bagit.get("BagIt-Version");
+		return version != null && !version.startsWith("0.");
+	}
+
+	/**
+	 * Get the BagIt-Version from bagit.txt.
+	 *
+	 * @return version or null
+	 */
+	public String getVersion() {
+		return this.bagit.get("BagIt-Version");
+	}
+
+	/**
+	 * Get a bag-info.txt element.
+	 *
+	 * @param label element name
+	 * @return first value or null
+	 */
+	public String getMetadata(String label) {
+		return this.metadata.get(label);
+	}
+
+	/**
+	 * Get the algorithms of the payload manifests.
+	 *
+	 * @return MessageDigest algorithm names
+	 */
+	public List<String> getPayloadAlgorithms() {
+		return new ArrayList<String>(this.payloadManifests.keySet());
+	}
+
+	/**
+	 * Get every checksum listed in the payload and tag manifests.
+	 *
+	 * @return path relative to the bag root to algorithm to hex checksum
+	 */
+	public Map<String, Map<String, String>> getExpectedChecksums() {
+		this.requireManifests();
+		Map<String, Map<String, String>> expected = new LinkedHashMap<String, Map<String, String>>();
+		List<Map<String, Map<String, String>>> kinds = new ArrayList<Map<String, Map<String, String>>>();
+		kinds.add(this.payloadManifests);
+		kinds.add(this.tagManifests);
+		for (Map<String, Map<String, String>> kind : kinds) {
+			for (Map.Entry<String, Map<String, String>> manifest : kind.entrySet()) {
+				for (Map.Entry<String, String> line : manifest.getValue().entrySet()) {
+					Map<String, String> checksums = expected.get(line.getKey());
+					if (checksums == null) {
+						checksums = new LinkedHashMap<String, String>();
+						expected.put(line.getKey(), checksums);
+					}
+					checksums.put(manifest.getKey(), line.getValue());
+				}
+			}
+		}
+		return expected;
+	}
+
+	/**
+	 * Fail if the bag was opened without reading its manifests.
+	 */
+	protected void requireManifests() {
+		if (!this.manifestsRead) {
+			throw new IllegalStateException("The manifests of the bag were not read");
+		}
+	}
+}
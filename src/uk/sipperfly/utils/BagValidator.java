@@ -0,0 +1,285 @@
+/*
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks the files of a bag against the checksums in its manifests on the worker pool of a HashingEngine.
+ * Each file is read once for all manifests that list it. Results are handed to a listener
+ * on the calling thread as soon as each file is done.
+ *
+ * @author Nouman Tayyab
+ */
+public class BagValidator {
+
+	private static String GACOM = "com.UKExactly";
+	private final Map<File, Map<String, String>> expected = new LinkedHashMap<File, Map<String, String>>();
+	private final HashingEngine engine;
+	private final boolean failFast;
+	private volatile FixityCache fixityCache;
+
+	/**
+	 * Receives the result of every file.
+	 */
+	public interface ValidationListener {
+
+		/**
+		 * Called on the thread that started the validation.
+		 *
+		 * @param file       validated file
+		 * @param valid      true if every checksum of the file matches
+		 * @param doneBytes  bytes of all files validated so far
+		 * @param totalBytes bytes of all files to validate
+		 */
+		void fileValidated(File file, boolean valid, long doneBytes, long totalBytes);
+	}
+
+	/**
+	 * Constructor for BagValidator
+	 *
+	 * @param engine   hashing engine whose threads and auto-tuning the validation uses
+	 * @param failFast stop at the first corrupt or unreadable file
+	 */
+	public BagValidator(HashingEngine engine, boolean failFast) {
+		if (engine == null) {
+			throw new IllegalArgumentException();
+		}
+		this.engine = engine;
+		this.failFast = failFast;
+	}
+
+	/**
+	 * Serve digests of files unchanged since they were last read from the fixity cache.
+	 *
+	 * @param fixityCache the cache or null to always read the files
+	 */
+	public void setFixityCache(FixityCache fixityCache) {
+		this.fixityCache = fixityCache;
+	}
+
+	/**
+	 * Add a manifest entry.
+	 *
+	 * @param file      file listed in the manifest
+	 * @param algorithm MessageDigest algorithm name of the manifest
+	 * @param checksum  hex checksum listed for the file
+	 */
+	public void expect(File file, String algorithm, String checksum) {
+		Map<String, String> checksums = this.expected.get(file);
+		if (checksums == null) {
+			checksums = new LinkedHashMap<String, String>();
+			this.expected.put(file, checksums);
+		}
+		checksums.put(algorithm, checksum);
+	}
+
+	/**
+	 * Hash every expected file and compare it with its manifest entries.
+	 *
+	 * @param listener per file results, may be null
+	 * @return corrupt and unreadable files
+	 * @throws InterruptedException
+	 */
+	public Result validate(ValidationListener listener) throws InterruptedException {
+		Result result = new Result();
+		long totalBytes = 0;
+		for (File file : this.expected.keySet()) {
+			totalBytes += this.length(file);
+		}
+		CompletionService<Boolean> completion = this.engine.completionService();
+		ConcurrencyTuner tuner = this.expected.isEmpty() ? null : this.engine.startTuning(this.location());
+		Map<Future<Boolean>, File> pending = new LinkedHashMap<Future<Boolean>, File>();
+		long[] doneBytes = new long[1];
+		boolean stop = false;
+		try {
+			for (final Map.Entry<File, Map<String, String>> entry : this.expected.entrySet()) {
+				pending.put(completion.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws IOException, NoSuchAlgorithmException {
+						List<String> algorithms = new ArrayList<String>(entry.getValue().keySet());
+						Map<String, String> actual = checkSums(entry.getKey(), algorithms);
+						for (Map.Entry<String, String> checksum : entry.getValue().entrySet()) {
+							if (!checksum.getValue().equalsIgnoreCase(actual.get(checksum.getKey()))) {
+								return false;
+							}
+						}
+						return true;
+					}
+				}), entry.getKey());
+				Future<Boolean> done;
+				while (!stop && (done = completion.poll()) != null) {
+					stop = this.collect(done, pending, result, doneBytes, totalBytes, listener, tuner);
+				}
+				if (stop) {
+					break;
+				}
+			}
+			while (!stop && !pending.isEmpty()) {
+				stop = this.collect(completion.take(), pending, result, doneBytes, totalBytes, listener, tuner);
+			}
+		} finally {
+			// the pool is shared, only the checks of this validation are cancelled
+			for (Future<Boolean> other : pending.keySet()) {
+				other.cancel(true);
+			}
+			this.engine.finishTuning(tuner);
+		}
+		Collections.sort(result.corrupt);
+		Collections.sort(result.unreadable);
+		return result;
+	}
+
+	/**
+	 * Take the outcome of one finished check.
+	 *
+	 * @return true if the validation stops here
+	 */
+	private boolean collect(Future<Boolean> future, Map<Future<Boolean>, File> pending, Result result, long[] doneBytes, long totalBytes,
+			ValidationListener listener, ConcurrencyTuner tuner) throws InterruptedException {
+		File file = pending.remove(future);
+		boolean valid;
+		try {
+			valid = future.get();
+			if (!valid) {
+				result.corrupt.add(file);
+			}
+		} catch (ExecutionException ex) {
+			Logger.getLogger(GACOM).log(Level.SEVERE, "Unable to read " + file, ex.getCause());
+			result.unreadable.add(file);
+			valid = false;
+		}
+		long bytes = this.length(file);
+		if (tuner != null) {
+			tuner.completed(bytes);
+		}
+		doneBytes[0] += bytes;
+		result.filesChecked++;
+		result.bytesChecked = doneBytes[0];
+		if (listener != null) {
+			listener.fileValidated(file, valid, doneBytes[0], totalBytes);
+		}
+		return !valid && this.failFast;
+	}
+
+	/**
+	 * A file on the FileStore the validation reads from, to tune the thread count to.
+	 *
+	 * @return the first listed file
+	 */
+	protected File location() {
+		return this.expected.keySet().iterator().next();
+	}
+
+	/**
+	 * Size of a listed file, called on the thread that started the validation.
+	 *
+	 * @param file file listed in a manifest
+	 * @return size in bytes
+	 */
+	protected long length(File file) {
+		return file.length();
+	}
+
+	/**
+	 * Hash a listed file, called on a worker thread.
+	 *
+	 * @param file       file listed in a manifest
+	 * @param algorithms MessageDigest algorithm names
+	 * @return algorithm to hex digest
+	 * @throws IOException
+	 * @throws NoSuchAlgorithmException
+	 */
+	protected Map<String, String> checkSums(File file, List<String> algorithms) throws IOException, NoSuchAlgorithmException {
+		FixityCache cache = this.fixityCache;
+		if (cache == null) {
+			return HashingEngine.checkSums(file, algorithms);
+		}
+		FixityCache.Key key = FixityCache.keyOf(file);
+		Map<String, String> checksums = cache.lookup(key, algorithms);
+		if (checksums == null) {
+			checksums = HashingEngine.checkSums(file, algorithms);
+			cache.record(key, checksums);
+		}
+		return checksums;
+	}
+
+	/**
+	 * Outcome of a validation.
+	 */
+	public static class Result {
+
+		private final List<File> corrupt = new ArrayList<File>();
+		private final List<File> unreadable = new ArrayList<File>();
+		private int filesChecked;
+		private long bytesChecked;
+
+		/**
+		 * Files whose checksum does not match a manifest.
+		 *
+		 * @return sorted files
+		 */
+		public List<File> getCorrupt() {
+			return corrupt;
+		}
+
+		/**
+		 * Files that could not be read.
+		 *
+		 * @return sorted files
+		 */
+		public List<File> getUnreadable() {
+			return unreadable;
+		}
+
+		/**
+		 * Number of files validated, less than the bag holds if validation stopped early.
+		 *
+		 * @return file count
+		 */
+		public int getFilesChecked() {
+			return filesChecked;
+		}
+
+		/**
+		 * Bytes of all validated files.
+		 *
+		 * @return byte count
+		 */
+		public long getBytesChecked() {
+			return bytesChecked;
+		}
+
+		/**
+		 * Check whether every validated file matched.
+		 *
+		 * @return true if nothing is corrupt or unreadable
+		 */
+		public boolean isValid() {
+			return corrupt.isEmpty() && unreadable.isEmpty();
+		}
+	}
+}
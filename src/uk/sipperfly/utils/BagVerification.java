@@ -0,0 +1,156 @@
+/*
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * How much of a new bag is read back before it is delivered.
+ * The sampled files are chosen with a logged seed so that a check can be repeated exactly.
+ *
+ * @author Nouman Tayyab
+ */
+public class BagVerification {
+
+	/**
+	 * Verification level.
+	 */
+	public enum Level {
+
+		/**
+		 * Re-hash the whole payload against the manifests.
+		 */
+		FULL,
+		/**
+		 * Check Payload-Oxum and that the manifests list exactly the payload files, without reading any payload.
+		 */
+		OXUM,
+		/**
+		 * OXUM plus a re-hash of a random share of the payload bytes.
+		 */
+		SAMPLED;
+
+		/**
+		 * Parse a configured level.
+		 *
+		 * @param value
+		 * @return the level, FULL if unknown
+		 */
+		public static Level parse(String value) {
+			if (value != null) {
+				for (Level level : values()) {
+					if (level.name().equalsIgnoreCase(value.trim())) {
+						return level;
+					}
+				}
+			}
+			return FULL;
+		}
+	}
+
+	private final Level level;
+	private final int samplePercent;
+	private final long seed;
+	private int totalFiles;
+	private long totalBytes;
+	private int sampledFiles;
+	private long sampledBytes;
+
+	/**
+	 * Constructor for BagVerification
+	 *
+	 * @param level         verification level
+	 * @param samplePercent percentage of payload bytes re-hashed when sampling
+	 * @param seed          seed for the sample, 0 for a new random seed
+	 */
+	public BagVerification(Level level, int samplePercent, long seed) {
+		this.level = level;
+		this.samplePercent = Math.max(1, Math.min(100, samplePercent));
+		this.seed = seed != 0 ? seed : new Random().nextLong();
+	}
+
+	/**
+	 * Get verification level.
+	 *
+	 * @return
+	 */
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * Get the seed the sample is drawn with.
+	 *
+	 * @return
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Choose the files to re-hash. Files are shuffled with the seed and taken until
+	 * the sampled bytes reach the configured percentage, at least one file is always taken.
+	 *
+	 * @param sizes every payload file with its size
+	 * @return sampled files
+	 */
+	public List<File> sample(Map<File, Long> sizes) {
+		List<File> files = new ArrayList<File>(sizes.keySet());
+		// a fixed order before shuffling makes the sample depend on the seed only
+		Collections.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return a.getPath().compareTo(b.getPath());
+			}
+		});
+		Collections.shuffle(files, new Random(this.seed));
+		this.totalFiles = files.size();
+		this.totalBytes = 0;
+		for (Long size : sizes.values()) {
+			this.totalBytes += size;
+		}
+		long budget = this.totalBytes * this.samplePercent / 100;
+		List<File> sample = new ArrayList<File>();
+		this.sampledBytes = 0;
+		for (File file : files) {
+			if (!sample.isEmpty() && this.sampledBytes >= budget) {
+				break;
+			}
+			sample.add(file);
+			this.sampledBytes += sizes.get(file);
+		}
+		this.sampledFiles = sample.size();
+		return sample;
+	}
+
+	/**
+	 * Lines describing the check for the job report.
+	 *
+	 * @return report lines
+	 */
+	public List<String> lines() {
+		List<String> lines = new ArrayList<String>();
+		lines.add("Bag verification: " + this.level);
+		if (this.level == Level.SAMPLED) {
+			lines.add(String.format("Sample: %d%% of bytes, seed %d, %d of %d files, %d of %d bytes",
+					this.samplePercent, this.seed, this.sampledFiles, this.totalFiles, this.sampledBytes, this.totalBytes));
+		}
+		return lines;
+	}
+}
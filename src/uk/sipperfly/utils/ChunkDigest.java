@@ -0,0 +1,182 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * CRC32 of every fixed-size chunk of a file, fed with the same blocks as the MessageDigests.
+ * Chunks are cheap to hash and can be verified and re-copied independently,
+ * so one damaged block of a large file does not force a full re-copy.
+ *
+ * @author Nouman Tayyab
+ */
+public class ChunkDigest {
+
+	private static final int SCRATCH_SIZE = 64 * 1024;
+	private final long chunkSize;
+	private final CRC32 crc = new CRC32();
+	private final List<Long> values = new ArrayList<Long>();
+	private long inChunk = 0;
+	private byte[] scratch;
+
+	/**
+	 * Constructor for ChunkDigest
+	 *
+	 * @param chunkSize chunk size in bytes
+	 */
+	public ChunkDigest(long chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Feed the next bytes of the file.
+	 *
+	 * @param block
+	 * @param offset
+	 * @param length
+	 */
+	public void update(byte[] block, int offset, int length) {
+		while (length > 0) {
+			int count = (int) Math.min(length, this.chunkSize - this.inChunk);
+			this.crc.update(block, offset, count);
+			this.inChunk += count;
+			offset += count;
+			length -= count;
+			if (this.inChunk == this.chunkSize) {
+				this.values.add(this.crc.getValue());
+				this.crc.reset();
+				this.inChunk = 0;
+			}
+		}
+	}
+
+	/**
+	 * Feed the remaining bytes of a buffer, consuming it.
+	 *
+	 * @param buffer
+	 */
+	public void update(ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			this.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+			return;
+		}
+		if (this.scratch == null) {
+			this.scratch = new byte[SCRATCH_SIZE];
+		}
+		while (buffer.hasRemaining()) {
+			int count = Math.min(buffer.remaining(), SCRATCH_SIZE);
+			buffer.get(this.scratch, 0, count);
+			this.update(this.scratch, 0, count);
+		}
+	}
+
+	/**
+	 * Forget everything fed so far.
+	 */
+	public void reset() {
+		this.crc.reset();
+		this.values.clear();
+		this.inChunk = 0;
+	}
+
+	/**
+	 * Finish the last chunk. An empty file has a single empty chunk.
+	 *
+	 * @return CRC32 of every chunk in file order
+	 */
+	public long[] finish() {
+		if (this.inChunk > 0 || this.values.isEmpty()) {
+			this.values.add(this.crc.getValue());
+		}
+		long[] chunks = new long[this.values.size()];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = this.values.get(i);
+		}
+		return chunks;
+	}
+
+	/**
+	 * Number of chunks a file of the given size is split into.
+	 *
+	 * @param size      file size in bytes
+	 * @param chunkSize chunk size in bytes
+	 * @return chunk count, at least one
+	 */
+	public static int chunkCount(long size, long chunkSize) {
+		return (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+	}
+
+	/**
+	 * Name the chunk list is stored under next to the real algorithms, i.e. in the fixity cache.
+	 *
+	 * @param chunkSize chunk size in bytes
+	 * @return pseudo algorithm name
+	 */
+	public static String algorithmName(long chunkSize) {
+		return "CRC32-" + chunkSize;
+	}
+
+	/**
+	 * Format chunk values as colon separated hex.
+	 *
+	 * @param chunks
+	 * @return
+	 */
+	public static String format(long[] chunks) {
+		StringBuilder out = new StringBuilder();
+		for (long chunk : chunks) {
+			if (out.length() > 0) {
+				out.append(':');
+			}
+			out.append(toHex(chunk));
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Parse the output of format.
+	 *
+	 * @param value
+	 * @return chunk values or null
+	 */
+	public static long[] parse(String value) {
+		if (value == null || value.isEmpty()) {
+			return null;
+		}
+		String[] parts = value.split(":");
+		long[] chunks = new long[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			chunks[i] = Long.parseLong(parts[i], 16);
+		}
+		return chunks;
+	}
+
+	/**
+	 * Eight digit hex of a CRC32 value.
+	 *
+	 * @param crc
+	 * @return
+	 */
+	public static String toHex(long crc) {
+		String hex = Long.toHexString(crc);
+		while (hex.length() < 8) {
+			hex = "0" + hex;
+		}
+		return hex;
+	}
+}
@@ -13,7 +13,6 @@
 package uk.sipperfly.utils;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringReader;
@@ -24,17 +23,18 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.AclFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.DosFileAttributes;
 import java.nio.file.attribute.PosixFileAttributes;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
 import java.text.Normalizer;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.xml.parsers.DocumentBuilder;
@@ -100,20 +100,31 @@ public class CommonUtil {
 	 * @return the total number of files
 	 */
 	public static int countFilesInDirectory(File directory, String filters) {
+		return countFilesInDirectory(directory, IgnoreFilter.of(filters));
+	}
+
+	/**
+	 * Count files in a directory (including files in all subdirectories) that are not ignored.
+	 *
+	 * @param directory the directory to start in
+	 * @param filter    the compiled ignore filter
+	 * @return the total number of files
+	 */
+	public static int countFilesInDirectory(File directory, IgnoreFilter filter) {
 		int count = 0;
-                if( null != directory.listFiles() )
+                File[] children = directory.listFiles();
+                if( null != children )
                 {
-                    for (File file : directory.listFiles()) {
+                    for (File file : children) {
                         try{
                             if (file.isFile()) {
-                                    String fileName = file.getName();
-                                    boolean ignore = checkIgnoreFiles(fileName, filters);
+                                    boolean ignore = filter.ignores(file);
                                     if (!ignore) {
                                             count++;
                                     }
                             }
                             if (file.isDirectory()) {
-                                    count += countFilesInDirectory(file, filters);
+                                    count += countFilesInDirectory(file, filter);
                             }
                         }catch(Exception e)
                         {
@@ -133,27 +144,7 @@ public class CommonUtil {
 	 * @return boolean
 	 */
 	public static boolean checkIgnoreFiles(String fileName, String dbFilters) {
-		boolean ignore = false;
-
-		if (dbFilters != null && !dbFilters.equals("")) {
-			List<String> filterList = Arrays.asList(dbFilters.split(","));
-
-			int lastIndex = fileName.lastIndexOf('.');
-			String extension = "";
-			if (lastIndex != -1) {
-				extension = fileName.substring(lastIndex);
-			}
-			if (filterList.size() > 0) {
-				for (String filter : filterList) {
-					filter = filter.replace("*", "");
-					if (fileName.equalsIgnoreCase(filter) || extension.equals(filter)) {
-						ignore = true;
-
-					}
-				}
-			}
-		}
-		return ignore;
+		return IgnoreFilter.of(dbFilters).ignores(fileName);
 	}
 
 	/**
@@ -172,6 +163,50 @@ public class CommonUtil {
 		return new File(path1.toString(), path2.toString()).toPath();
 	}
 
+	/**
+	 * Relative path of a file below a root, always using '/' as separator.
+	 * Used as the key for payload digests.
+	 *
+	 * @param root The root path
+	 * @param file The file below the root
+	 * @return relative path string
+	 */
+	public static String relativeKey(Path root, Path file) {
+		return root.relativize(file).toString().replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * Parse a comma separated list of manifest algorithms, i.e. "md5, sha256".
+	 * MD5 always comes first because the semaphore, the mail attachment and unbagging read manifest-md5.txt.
+	 *
+	 * @param value configured algorithms, may be null
+	 * @return MessageDigest algorithm names without duplicates
+	 */
+	public static List<String> parseAlgorithms(String value) {
+		List<String> algorithms = new ArrayList<String>();
+		algorithms.add("MD5");
+		if (value == null) {
+			return algorithms;
+		}
+		for (String name : value.split(",")) {
+			String key = name.trim().toUpperCase().replace("-", "");
+			String algorithm = null;
+			if (key.equals("SHA1")) {
+				algorithm = "SHA-1";
+			} else if (key.equals("SHA256")) {
+				algorithm = "SHA-256";
+			} else if (key.equals("SHA512")) {
+				algorithm = "SHA-512";
+			} else if (!key.isEmpty() && !key.equals("MD5")) {
+				Logger.getLogger(GACOM).log(Level.WARNING, "Unsupported manifest algorithm: {0}", name);
+			}
+			if (algorithm != null && !algorithms.contains(algorithm)) {
+				algorithms.add(algorithm);
+			}
+		}
+		return algorithms;
+	}
+
 	/**
 	 * Creates a semaphore text file in the source directory to let the user know that the transfer has completed successfully.
 	 * It contains the name of the user that initiated the transfer, Transfer title, local and ftp location and a timestamp.
@@ -227,6 +262,25 @@ public class CommonUtil {
 		return false;
 	}
 
+	/**
+	 * Append lines to the semaphore of a transfer, i.e. the verification part of the job report.
+	 *
+	 * @param source folder that holds the semaphore
+	 * @param lines  lines to append
+	 */
+	public void appendToSemaphore(Path source, List<String> lines) {
+		Path semaphorePath = this.combine(source, new File(transferSemaphore).toPath());
+		StringBuilder text = new StringBuilder(System.getProperty("line.separator"));
+		for (String line : lines) {
+			text.append(line).append(System.getProperty("line.separator"));
+		}
+		try {
+			Files.write(semaphorePath, text.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		} catch (IOException ex) {
+			Logger.getLogger(GACOM).log(Level.SEVERE, "Failed to update transfer complete semaphore", ex);
+		}
+	}
+
 	public String validDestination(String ftp, String name) {
 		if (!ftp.startsWith("/")) {
 			ftp = "/" + ftp;
@@ -294,27 +348,7 @@ public class CommonUtil {
 	public static String checkSum(String path) {
 		String checksum = null;
 		try {
-			FileInputStream fis = new FileInputStream(path);
-			MessageDigest md = MessageDigest.getInstance("MD5");
-
-			//Using MessageDigest update() method to provide input
-			byte[] buffer = new byte[8192];
-			int numOfBytesRead;
-			while ((numOfBytesRead = fis.read(buffer)) > 0) {
-				md.update(buffer, 0, numOfBytesRead);
-			}
-			fis.close();
-			byte[] hash = md.digest();
-			StringBuffer hexString = new StringBuffer();
-			for (int i = 0; i < hash.length; i++) {
-				String hex = Integer.toHexString(0xff & hash[i]);
-				if (hex.length() == 1) {
-					hexString.append('0');
-				}
-				hexString.append(hex);
-			}
-			checksum = hexString.toString();
-//			checksum = new BigInteger(1, hash).toString(16); //don't use this, truncates leading zero
+			checksum = HashingEngine.checkSum(new File(path), "MD5");
 		} catch (IOException ex) {
 			Logger.getLogger(GACOM).log(Level.SEVERE, "IOException: ", ex);
 		} catch (NoSuchAlgorithmException ex) {
@@ -324,6 +358,25 @@ public class CommonUtil {
 		return checksum;
 	}
 
+	/**
+	 * Convert a digest to its lower case hex representation.
+	 *
+	 * @param hash digest bytes
+	 * @return hex string
+	 */
+	public static String toHex(byte[] hash) {
+		StringBuilder hexString = new StringBuilder(hash.length * 2);
+		for (int i = 0; i < hash.length; i++) {
+			String hex = Integer.toHexString(0xff & hash[i]);
+			if (hex.length() == 1) {
+				hexString.append('0');
+			}
+			hexString.append(hex);
+		}
+//		checksum = new BigInteger(1, hash).toString(16); //don't use this, truncates leading zero
+		return hexString.toString();
+	}
+
 	/**
 	 * Unpack bag.
 	 *
@@ -341,7 +394,14 @@ public class CommonUtil {
 		FileUtils.copyFile(new File(source + File.separator + "bag-info.txt"), new File(metadata + File.separator + "bag-info.txt"));
 		FileUtils.copyFile(new File(source + File.separator + "bag-info.xml"), new File(metadata + File.separator + "bag-info.xml"));
 		FileUtils.copyFile(new File(source + File.separator + "bag-info.csv"), new File(metadata + File.separator + "bag-info.csv"));
-		FileUtils.copyFile(new File(source + File.separator + "manifest-md5.txt"), new File(metadata + File.separator + "manifest-md5.txt"));
+		File[] children = workDir.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				if (child.isFile() && child.getName().startsWith("manifest-") && child.getName().endsWith(".txt")) {
+					FileUtils.copyFile(child, new File(metadata + File.separator + child.getName()));
+				}
+			}
+		}
 		FileUtils.copyFile(new File(source + File.separator + "TransferComplete.txt"), new File(metadata + File.separator + "TransferComplete.txt"));
 		FileUtils.copyFile(new File(source + File.separator + "FileSystemData.txt"), new File(metadata + File.separator + "FileSystemData.txt"));
 		FileUtils.deleteDirectory(workDir);
@@ -557,6 +617,105 @@ public class CommonUtil {
 			}
 
 			configElement.appendChild(email1);
+
+			Element hashDuringCopy = doc.createElement("Hash-During-Copy");
+			hashDuringCopy.appendChild(doc.createTextNode(String.valueOf(config.getHashDuringCopy())));
+			configElement.appendChild(hashDuringCopy);
+
+			Element hashThreads = doc.createElement("Hash-Threads");
+			hashThreads.appendChild(doc.createTextNode(String.valueOf(config.getHashThreads())));
+			configElement.appendChild(hashThreads);
+
+			Element manifestAlgorithms = doc.createElement("Manifest-Algorithms");
+			manifestAlgorithms.appendChild(doc.createTextNode(String.valueOf(config.getManifestAlgorithms())));
+			configElement.appendChild(manifestAlgorithms);
+
+			Element fixityCache = doc.createElement("Fixity-Cache");
+			fixityCache.appendChild(doc.createTextNode(String.valueOf(config.getFixityCache())));
+			configElement.appendChild(fixityCache);
+
+			Element fixityCacheDays = doc.createElement("Fixity-Cache-Days");
+			fixityCacheDays.appendChild(doc.createTextNode(String.valueOf(config.getFixityCacheDays())));
+			configElement.appendChild(fixityCacheDays);
+
+			Element forceRehash = doc.createElement("Force-Rehash");
+			forceRehash.appendChild(doc.createTextNode(String.valueOf(config.getForceRehash())));
+			configElement.appendChild(forceRehash);
+
+			Element chunkSize = doc.createElement("Chunk-Size");
+			chunkSize.appendChild(doc.createTextNode(String.valueOf(config.getChunkSize())));
+			configElement.appendChild(chunkSize);
+
+			Element verifyMode = doc.createElement("Verify-Mode");
+			verifyMode.appendChild(doc.createTextNode(String.valueOf(config.getVerifyMode())));
+			configElement.appendChild(verifyMode);
+
+			Element readAheadDepth = doc.createElement("Read-Ahead-Depth");
+			readAheadDepth.appendChild(doc.createTextNode(String.valueOf(config.getReadAheadDepth())));
+			configElement.appendChild(readAheadDepth);
+
+			Element bagVerification = doc.createElement("Bag-Verification");
+			bagVerification.appendChild(doc.createTextNode(String.valueOf(config.getBagVerification())));
+			configElement.appendChild(bagVerification);
+
+			Element samplePercent = doc.createElement("Sample-Percent");
+			samplePercent.appendChild(doc.createTextNode(String.valueOf(config.getSamplePercent())));
+			configElement.appendChild(samplePercent);
+
+			Element sampleSeed = doc.createElement("Sample-Seed");
+			sampleSeed.appendChild(doc.createTextNode(String.valueOf(config.getSampleSeed())));
+			configElement.appendChild(sampleSeed);
+
+
+			Element validateFailFast = doc.createElement("Validate-Fail-Fast");
+			validateFailFast.appendChild(doc.createTextNode(String.valueOf(config.getValidateFailFast())));
+			configElement.appendChild(validateFailFast);
+
+			Element validationCache = doc.createElement("Validation-Cache");
+			validationCache.appendChild(doc.createTextNode(String.valueOf(config.getValidationCache())));
+			configElement.appendChild(validationCache);
+
+			Element auditEnabled = doc.createElement("Audit-Enabled");
+			auditEnabled.appendChild(doc.createTextNode(String.valueOf(config.getAuditEnabled())));
+			configElement.appendChild(auditEnabled);
+
+			Element auditRate = doc.createElement("Audit-Rate");
+			auditRate.appendChild(doc.createTextNode(String.valueOf(config.getAuditRate())));
+			configElement.appendChild(auditRate);
+
+			Element auditWindows = doc.createElement("Audit-Windows");
+			auditWindows.appendChild(doc.createTextNode(String.valueOf(config.getAuditWindows())));
+			configElement.appendChild(auditWindows);
+
+			Element auditIntervalDays = doc.createElement("Audit-Interval-Days");
+			auditIntervalDays.appendChild(doc.createTextNode(String.valueOf(config.getAuditIntervalDays())));
+			configElement.appendChild(auditIntervalDays);
+
+			Element autoTune = doc.createElement("Auto-Tune");
+			autoTune.appendChild(doc.createTextNode(String.valueOf(config.getAutoTune())));
+			configElement.appendChild(autoTune);
+
+			Element copyVerification = doc.createElement("Copy-Verification");
+			copyVerification.appendChild(doc.createTextNode(String.valueOf(config.getCopyVerification())));
+			configElement.appendChild(copyVerification);
+
+			Element copyThreads = doc.createElement("Copy-Threads");
+			copyThreads.appendChild(doc.createTextNode(String.valueOf(config.getCopyThreads())));
+			configElement.appendChild(copyThreads);
+
+			Element stagingMode = doc.createElement("Staging-Mode");
+			stagingMode.appendChild(doc.createTextNode(String.valueOf(config.getStagingMode())));
+			configElement.appendChild(stagingMode);
+
+			Element linkVerifyInode = doc.createElement("Link-Verify-Inode");
+			linkVerifyInode.appendChild(doc.createTextNode(String.valueOf(config.getLinkVerifyInode())));
+			configElement.appendChild(linkVerifyInode);
+			Element sparseCopy = doc.createElement("Sparse-Copy");
+			sparseCopy.appendChild(doc.createTextNode(String.valueOf(config.getSparseCopy())));
+			configElement.appendChild(sparseCopy);
+			Element preallocate = doc.createElement("Preallocate");
+			preallocate.appendChild(doc.createTextNode(String.valueOf(config.getPreallocate())));
+			configElement.appendChild(preallocate);
 			// write the content into xml file
 			TransformerFactory transformerFactory = TransformerFactory.newInstance();
 			Transformer transformer = transformerFactory.newTransformer();
@@ -736,6 +895,81 @@ public class CommonUtil {
 					if (eElement.getElementsByTagName("Email-Notification").getLength() == 1) {
 						configurations.setEmailNotifications(Boolean.valueOf(eElement.getElementsByTagName("Email-Notification").item(0).getTextContent()));
 					}
+					if (eElement.getElementsByTagName("Hash-During-Copy").getLength() == 1) {
+						configurations.setHashDuringCopy(Boolean.valueOf(eElement.getElementsByTagName("Hash-During-Copy").item(0).getTextContent()));
+					}
+					if (eElement.getElementsByTagName("Hash-Threads").getLength() == 1) {
+						configurations.setHashThreads(Integer.parseInt(eElement.getElementsByTagName("Hash-Threads").item(0).getTextContent()));
+					}
+					if (eElement.getElementsByTagName("Manifest-Algorithms").getLength() == 1) {
+						configurations.setManifestAlgorithms(eElement.getElementsByTagName("Manifest-Algorithms").item(0).getTextContent());
+					}
+					if (eElement.getElementsByTagName("Fixity-Cache").getLength() == 1) {
+						configurations.setFixityCache(Boolean.valueOf(eElement.getElementsByTagName("Fixity-Cache").item(0).getTextContent()));
+					}
+					if (eElement.getElementsByTagName("Fixity-Cache-Days").getLength() == 1) {
+						configurations.setFixityCacheDays(Integer.parseInt(eElement.getElementsByTagName("Fixity-Cache-Days").item(0).getTextContent()));
+					}
+					if (eElement.getElementsByTagName("Force-Rehash").getLength() == 1) {
+						configurations.setForceRehash(Boolean.valueOf(eElement.getElementsByTagName("Force-Rehash").item(0).getTextContent()));
+					}
+					if (eElement.getElementsByTagName("Chunk-Size").getLength() == 1) {
+						configurations.setChunkSize(Integer.parseInt(eElement.getElementsByTagName("Chunk-Size").item(0).getTextContent()));
+					}
+					if (eElement.getElementsByTagName("Verify-Mode").getLength() == 1) {
+						configurations.setVerifyMode(eElement.getElementsByTagName("Verify-Mode").item(0).getTextContent());
+					}
+					if (eElement.getElementsByTagName("Read-Ahead-Depth").getLength() == 1) {
+						configurations.setReadAheadDepth(Integer.parseInt(eElement.getElementsByTagName("Read-Ahead-Depth").item(0).getTextContent()));
+					}
+					if (eElement.getElementsByTagName("Bag-Verification").getLength() == 1) {
+						configurations.setBagVerification(eElement.getElementsByTagName("Bag-Verification").item(0).getTextContent());
+					}
+					if (eElement.getElementsByTagName("Sample-Percent").getLength() == 1) {
+						configurations.setSamplePercent(Integer.parseInt(eElement.getElementsByTagName("Sample-Percent").item(0).getTextContent()));
+					}
+					if (eElement.getElementsByTagName("Sample-Seed").getLength() == 1) {
+						configurations.setSampleSeed(Long.parseLong(eElement.getElementsByTagName("Sample-Seed").item(0).getTextContent()));
+					}
+					if (eElement.getElementsByTagName("Validate-Fail-Fast").getLength() == 1) {
+						configurations.setValidateFailFast(Boolean.valueOf(eElement.getElementsByTagName("Validate-Fail-Fast").item(0).getTextContent()));
+					}
+					if (eElement.getElementsByTagName("Validation-Cache").getLength() == 1) {
+						configurations.setValidationCache(Boolean.valueOf(eElement.getElementsByTagName("Validation-Cache").item(0).getTextContent()));
+					}
+					if (eElement.getElementsByTagName("Audit-Enabled").getLength() == 1) {
+						configurations.setAuditEnabled(Boolean.valueOf(eElement.getElementsByTagName("Audit-Enabled").item(0).getTextContent()));
+					}
+					if (eElement.getElementsByTagName("Audit-Rate").getLength() == 1) {
+						configurations.setAuditRate(Integer.parseInt(eElement.getElementsByTagName("Audit-Rate").item(0).getTextContent()));
+					}
+					if (eElement.getElementsByTagName("Audit-Windows").getLength() == 1) {
+						configurations.setAuditWindows(eElement.getElementsByTagName("Audit-Windows").item(0).getTextContent());
+					}
+					if (eElement.getElementsByTagName("Audit-Interval-Days").getLength() == 1) {
+						configurations.setAuditIntervalDays(Integer.parseInt(eElement.getElementsByTagName("Audit-Interval-Days").item(0).getTextContent()));
+					}
+					if (eElement.getElementsByTagName("Auto-Tune").getLength() == 1) {
+						configurations.setAutoTune(Boolean.valueOf(eElement.getElementsByTagName("Auto-Tune").item(0).getTextContent()));
+					}
+					if (eElement.getElementsByTagName("Copy-Verification").getLength() == 1) {
+						configurations.setCopyVerification(eElement.getElementsByTagName("Copy-Verification").item(0).getTextContent());
+					}
+					if (eElement.getElementsByTagName("Copy-Threads").getLength() == 1) {
+						configurations.setCopyThreads(Integer.parseInt(eElement.getElementsByTagName("Copy-Threads").item(0).getTextContent()));
+					}
+					if (eElement.getElementsByTagName("Staging-Mode").getLength() == 1) {
+						configurations.setStagingMode(eElement.getElementsByTagName("Staging-Mode").item(0).getTextContent());
+					}
+					if (eElement.getElementsByTagName("Link-Verify-Inode").getLength() == 1) {
+						configurations.setLinkVerifyInode(Boolean.valueOf(eElement.getElementsByTagName("Link-Verify-Inode").item(0).getTextContent()));
+					}
+					if (eElement.getElementsByTagName("Sparse-Copy").getLength() == 1) {
+						configurations.setSparseCopy(Boolean.valueOf(eElement.getElementsByTagName("Sparse-Copy").item(0).getTextContent()));
+					}
+					if (eElement.getElementsByTagName("Preallocate").getLength() == 1) {
+						configurations.setPreallocate(Boolean.valueOf(eElement.getElementsByTagName("Preallocate").item(0).getTextContent()));
+					}
 				}
 				this.configurationsRepo.save(configurations);
 			}
@@ -761,20 +995,71 @@ public class CommonUtil {
 	}
 
 	public static String getDirectoryChecksum(File directory) {
-		String out = "";
-		for (File file : directory.listFiles()) {
-			String fileName = file.getName();
-			if (!file.exists()) {
-				out += fileName + "_|_" + "not found" + "\n";
-			} else if (file.isFile()) {
-				out += fileName + "_|_" + checkSum(file.getAbsolutePath()) + "\n";
+		HashingEngine engine = new HashingEngine();
+		try {
+			return getDirectoryChecksum(directory, engine, null);
+		} finally {
+			engine.shutdown();
+		}
+	}
+
+	/**
+	 * Checksum every file below the directory on the hashing engine.
+	 *
+	 * @param directory the directory to start in
+	 * @param engine    hashing engine
+	 * @param listener  per file progress, may be null
+	 * @return one name_|_checksum line per file
+	 */
+	public static String getDirectoryChecksum(File directory, HashingEngine engine, HashingEngine.HashListener listener) {
+		List<File> files = new ArrayList<File>();
+		listFiles(directory, files);
+		StringBuilder out = new StringBuilder();
+		try {
+			Map<File, String> checksums = engine.hashFiles(files, "MD5", listener);
+			for (File file : files) {
+				out.append(file.getName()).append("_|_").append(checksums.get(file)).append("\n");
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			Logger.getLogger(GACOM).log(Level.SEVERE, "InterruptedException: ", ex);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Collect all files below a directory.
+	 *
+	 * @param directory the directory to start in
+	 * @param files     receives the files
+	 */
+	public static void listFiles(File directory, List<File> files) {
+		listFiles(directory, files, IgnoreFilter.NONE);
+	}
+
+	/**
+	 * Collect all files below a directory that are not ignored.
+	 *
+	 * @param directory the directory to start in
+	 * @param files     receives the files
+	 * @param filter    the compiled ignore filter
+	 */
+	public static void listFiles(File directory, List<File> files, IgnoreFilter filter) {
+		File[] children = directory.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File file : children) {
+			if (file.isFile()) {
+				if (!filter.ignores(file)) {
+					files.add(file);
+				}
 			} else if (file.isDirectory()) {
-				out += getDirectoryChecksum(file);
+				listFiles(file, files, filter);
 			}
 		}
-		return out;
 	}
-        
+
         public static void copyFileAttributes(Path source, Path destination){
             //Copy Basic File Attributes
             try {
@@ -0,0 +1,218 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Finds the thread count a FileStore reads fastest with while a job runs.
+ * Throughput is measured over short probes, the thread count is doubled while that helps
+ * and halved if the first step up did not, then it stays at the best count seen.
+ * The settled count is remembered per FileStore, so the next job starts there.
+ *
+ * @author Nouman Tayyab
+ */
+public class ConcurrencyTuner {
+
+	private static String GACOM = "com.UKExactly";
+	/**
+	 * Largest thread count the tuner tries.
+	 */
+	public static final int MAX_THREADS = 16;
+	/**
+	 * Minimum length of one probe.
+	 */
+	private static final long PROBE_NANOS = 2000L * 1000 * 1000;
+	/**
+	 * A step has to improve throughput by this factor to be kept.
+	 */
+	private static final double MIN_GAIN = 1.10;
+	private static final Map<String, Integer> SETTLED = new ConcurrentHashMap<String, Integer>();
+	private final String store;
+	private final Resizer resizer;
+	private final int start;
+	private final List<String> decisions = new ArrayList<String>();
+	private int threads;
+	private int bestThreads;
+	private double bestRate = -1;
+	private boolean goingDown;
+	private boolean settled;
+	private long probeStart;
+	private long probeBytes;
+	private int probeFiles;
+
+	/**
+	 * Applies a new thread count.
+	 */
+	public interface Resizer {
+
+		/**
+		 * Called on the thread that reports completed work.
+		 *
+		 * @param threads new thread count
+		 */
+		void resize(int threads);
+	}
+
+	private ConcurrencyTuner(String store, int start, Resizer resizer) {
+		this.store = store;
+		this.start = start;
+		this.threads = start;
+		this.resizer = resizer;
+		this.probeStart = System.nanoTime();
+	}
+
+	/**
+	 * Start tuning the work on the FileStore of a path.
+	 *
+	 * @param work    kind of work, i.e. "hash" or "copy", each is tuned separately
+	 * @param path    a file on the FileStore
+	 * @param threads thread count to start with if the FileStore has not been tuned yet
+	 * @param resizer applies the thread counts
+	 * @return the tuner, already applied its starting thread count
+	 */
+	public static ConcurrencyTuner forPath(String work, Path path, int threads, Resizer resizer) {
+		String store = work + " on " + storeName(path);
+		Integer settled = SETTLED.get(store);
+		int start = Math.max(1, Math.min(MAX_THREADS, settled != null ? settled : threads));
+		ConcurrencyTuner tuner = new ConcurrencyTuner(store, start, resizer);
+		if (settled != null) {
+			tuner.decide(String.format("%s: starting with %d threads from an earlier probe", store, start));
+		}
+		resizer.resize(start);
+		return tuner;
+	}
+
+	/**
+	 * Get the thread count the FileStore of a path settled at.
+	 *
+	 * @param work kind of work, i.e. "hash" or "copy"
+	 * @param path a file on the FileStore
+	 * @return thread count or 0 if it has not been tuned yet
+	 */
+	public static int settledThreads(String work, Path path) {
+		Integer settled = SETTLED.get(work + " on " + storeName(path));
+		return settled == null ? 0 : settled;
+	}
+
+	/**
+	 * Name of the FileStore of a path, as the key the tuned thread count is remembered by.
+	 *
+	 * @param path
+	 * @return name and type of the FileStore, or the path's root if it cannot be determined
+	 */
+	public static String storeName(Path path) {
+		try {
+			FileStore store = Files.getFileStore(path);
+			return store.name() + " (" + store.type() + ")";
+		} catch (IOException ex) {
+			Path root = path.toAbsolutePath().getRoot();
+			return root == null ? path.toString() : root.toString();
+		}
+	}
+
+	/**
+	 * Record one finished unit of work, a file or a chunk.
+	 *
+	 * @param bytes bytes it read
+	 */
+	public synchronized void completed(long bytes) {
+		if (this.settled) {
+			return;
+		}
+		this.probeBytes += bytes;
+		this.probeFiles++;
+		long elapsed = System.nanoTime() - this.probeStart;
+		// every thread has to have finished something for the probe to say anything about its thread count
+		if (elapsed < PROBE_NANOS || this.probeFiles < this.threads) {
+			return;
+		}
+		this.step(this.probeBytes * 1e9 / elapsed);
+	}
+
+	/**
+	 * Stop tuning at the end of the work, falling back to the best thread count measured so far.
+	 */
+	public synchronized void finish() {
+		if (this.settled) {
+			return;
+		}
+		this.settled = true;
+		if (this.bestRate < 0) {
+			this.decide(String.format("%s: too little data to probe, kept %d threads", this.store, this.threads));
+		} else if (this.bestThreads != this.threads) {
+			this.decide(String.format("%s: work ended while probing, back to %d threads", this.store, this.bestThreads));
+			this.resizer.resize(this.bestThreads);
+		}
+	}
+
+	/**
+	 * Get the decisions taken so far.
+	 *
+	 * @return lines for the job report
+	 */
+	public synchronized List<String> getDecisions() {
+		return new ArrayList<String>(this.decisions);
+	}
+
+	private void step(double rate) {
+		this.decide(String.format("%s: %d threads read %.1f MB/s", this.store, this.threads, rate / (1024 * 1024)));
+		if (rate > this.bestRate * MIN_GAIN) {
+			this.bestRate = rate;
+			this.bestThreads = this.threads;
+			int next = this.goingDown ? this.threads / 2 : Math.min(MAX_THREADS, this.threads * 2);
+			if (next < 1 || next == this.threads) {
+				this.settle();
+			} else {
+				this.apply(next);
+			}
+		} else if (!this.goingDown && this.bestThreads == this.start && this.start > 1) {
+			// the first step up did not help, try fewer threads than we started with
+			this.goingDown = true;
+			this.apply(this.start / 2);
+		} else {
+			this.settle();
+		}
+	}
+
+	private void settle() {
+		this.settled = true;
+		SETTLED.put(this.store, this.bestThreads);
+		this.decide(String.format("%s: settled at %d threads", this.store, this.bestThreads));
+		if (this.threads != this.bestThreads) {
+			this.resizer.resize(this.bestThreads);
+		}
+	}
+
+	private void apply(int next) {
+		this.threads = next;
+		this.resizer.resize(next);
+		this.probeStart = System.nanoTime();
+		this.probeBytes = 0;
+		this.probeFiles = 0;
+	}
+
+	private void decide(String decision) {
+		this.decisions.add(decision);
+		Logger.getLogger(GACOM).log(Level.INFO, "Auto-tune: {0}", decision);
+	}
+}
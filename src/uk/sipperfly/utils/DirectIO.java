@@ -0,0 +1,174 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads that bypass the page cache through com.sun.nio.file.ExtendedOpenOption.DIRECT.
+ * The option, FileStore.getBlockSize and ByteBuffer.alignedSlice only exist on newer JDKs,
+ * so they are looked up reflectively and callers fall back to cached reads without them.
+ *
+ * @author Nouman Tayyab
+ */
+final class DirectIO {
+
+	private static String GACOM = "com.UKExactly";
+	private static final int DEFAULT_BLOCK_SIZE = 4096;
+	private static final OpenOption DIRECT = lookupDirect();
+	private static final Method BLOCK_SIZE = lookup(FileStore.class, "getBlockSize");
+	private static final Method ALIGNED_SLICE = lookup(ByteBuffer.class, "alignedSlice", int.class);
+
+	private DirectIO() {
+	}
+
+	/**
+	 * Check whether this JDK can open files for direct I/O.
+	 *
+	 * @return
+	 */
+	static boolean isAvailable() {
+		return DIRECT != null && ALIGNED_SLICE != null;
+	}
+
+	/**
+	 * Open a file for direct reads. Fails if the file system does not support direct I/O.
+	 *
+	 * @param path
+	 * @return channel, every read must use an aligned buffer, position and length
+	 * @throws IOException
+	 */
+	static FileChannel open(Path path) throws IOException {
+		if (!isAvailable()) {
+			throw new UnsupportedOperationException("Direct I/O is not available on this JDK");
+		}
+		return FileChannel.open(path, StandardOpenOption.READ, DIRECT);
+	}
+
+	/**
+	 * Block size reads have to be aligned to.
+	 *
+	 * @param path
+	 * @return block size in bytes
+	 */
+	static int blockSize(Path path) {
+		if (BLOCK_SIZE != null) {
+			try {
+				return (int) (long) (Long) BLOCK_SIZE.invoke(Files.getFileStore(path));
+			} catch (ReflectiveOperationException | IOException | RuntimeException ex) {
+				Logger.getLogger(GACOM).log(Level.FINE, "Block size unknown", ex);
+			}
+		}
+		return DEFAULT_BLOCK_SIZE;
+	}
+
+	/**
+	 * Allocate a direct buffer whose address is aligned to the block size.
+	 *
+	 * @param capacity  multiple of the alignment
+	 * @param alignment block size
+	 * @return aligned buffer
+	 */
+	static ByteBuffer allocate(int capacity, int alignment) {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(capacity + alignment);
+		try {
+			ByteBuffer aligned = (ByteBuffer) ALIGNED_SLICE.invoke(buffer, alignment);
+			aligned.limit(capacity);
+			return aligned.slice();
+		} catch (ReflectiveOperationException ex) {
+			throw new UnsupportedOperationException(ex);
+		}
+	}
+
+	/**
+	 * Round a length up to a whole number of blocks.
+	 *
+	 * @param length
+	 * @param blockSize
+	 * @return
+	 */
+	static long roundUp(long length, int blockSize) {
+		return (length + blockSize - 1) / blockSize * blockSize;
+	}
+
+	/**
+	 * Flush the content and metadata of a file to the device. Staged copies keep the read only
+	 * attributes of their source, so the file is opened for reading, which is enough for fsync.
+	 * Where the platform only flushes through a handle opened for writing (Windows), a read only
+	 * file is made writable for the flush and its attributes are restored after.
+	 *
+	 * @param file
+	 * @throws IOException if the file could not be flushed
+	 */
+	static void sync(File file) throws IOException {
+		Path path = file.toPath();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			channel.force(true);
+			return;
+		} catch (IOException ex) {
+			if (Files.isWritable(path)) {
+				throw ex;
+			}
+			Logger.getLogger(GACOM).log(Level.FINE, "Flushing read only " + file + " through a writable handle", ex);
+		}
+		Set<PosixFilePermission> permissions = null;
+		if (Files.getFileAttributeView(path, PosixFileAttributeView.class) != null) {
+			permissions = Files.getPosixFilePermissions(path);
+		}
+		if (!file.setWritable(true)) {
+			throw new AccessDeniedException(file.getPath(), null, "cannot be made writable to flush it");
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		} finally {
+			if (permissions != null) {
+				Files.setPosixFilePermissions(path, permissions);
+			} else {
+				file.setWritable(false);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static OpenOption lookupDirect() {
+		try {
+			Class<?> options = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+			return (OpenOption) Enum.valueOf(options.asSubclass(Enum.class), "DIRECT");
+		} catch (ClassNotFoundException | IllegalArgumentException ex) {
+			return null;
+		}
+	}
+
+	private static Method lookup(Class<?> type, String name, Class<?>... parameters) {
+		try {
+			return type.getMethod(name, parameters);
+		} catch (NoSuchMethodException ex) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * A CRC checksum that can be used wherever a MessageDigest is expected, so the copy
+ * and the read back can be verified with it through the same code as the manifest digests.
+ * CRC32C is hardware accelerated on current JVMs but only exists from Java 9,
+ * so it is loaded by name and CRC32 is used where it is missing.
+ *
+ * @author Nouman Tayyab
+ */
+public class FastChecksum extends MessageDigest {
+
+	private static String GACOM = "com.UKExactly";
+	/**
+	 * Castagnoli CRC, java.util.zip.CRC32C.
+	 */
+	public static final String CRC32C = "CRC32C";
+	/**
+	 * Plain CRC, java.util.zip.CRC32.
+	 */
+	public static final String CRC32 = "CRC32";
+	private static final Class<?> CRC32C_CLASS = load("java.util.zip.CRC32C");
+	private final Checksum checksum;
+	/**
+	 * update(ByteBuffer) of the checksum, only available from Java 8 on.
+	 */
+	private final Method updateBuffer;
+
+	private FastChecksum(String algorithm, Checksum checksum) {
+		super(algorithm);
+		this.checksum = checksum;
+		Method method = null;
+		try {
+			method = checksum.getClass().getMethod("update", ByteBuffer.class);
+		} catch (NoSuchMethodException ex) {
+			// feed the bytes through an array instead
+		}
+		this.updateBuffer = method;
+	}
+
+	/**
+	 * Check whether an algorithm name is one of the fast checksums.
+	 *
+	 * @param algorithm
+	 * @return true for CRC32C and CRC32
+	 */
+	public static boolean isFast(String algorithm) {
+		return CRC32C.equals(algorithm) || CRC32.equals(algorithm);
+	}
+
+	/**
+	 * Resolve the configured copy verification to the checksum to use.
+	 *
+	 * @param configured MANIFEST, CRC32C or CRC32
+	 * @return CRC32C, CRC32, or null to verify with the manifest algorithms
+	 */
+	public static String resolve(String configured) {
+		if (configured == null) {
+			return null;
+		}
+		String name = configured.trim().toUpperCase();
+		if (name.equals(CRC32C)) {
+			if (CRC32C_CLASS == null) {
+				Logger.getLogger(GACOM).log(Level.WARNING, "CRC32C needs Java 9 or later, verifying copies with CRC32");
+				return CRC32;
+			}
+			return CRC32C;
+		}
+		return name.equals(CRC32) ? CRC32 : null;
+	}
+
+	/**
+	 * Create a checksum.
+	 *
+	 * @param algorithm CRC32C or CRC32
+	 * @return a new digest of 4 bytes
+	 * @throws NoSuchAlgorithmException if the algorithm is not available
+	 */
+	public static MessageDigest create(String algorithm) throws NoSuchAlgorithmException {
+		if (CRC32.equals(algorithm)) {
+			return new FastChecksum(CRC32, new CRC32());
+		}
+		if (CRC32C.equals(algorithm) && CRC32C_CLASS != null) {
+			try {
+				return new FastChecksum(CRC32C, (Checksum) CRC32C_CLASS.getConstructor().newInstance());
+			} catch (ReflectiveOperationException ex) {
+				throw new NoSuchAlgorithmException(algorithm, ex);
+			}
+		}
+		throw new NoSuchAlgorithmException(algorithm);
+	}
+
+	@Override
+	protected void engineUpdate(byte input) {
+		this.checksum.update(input);
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int len) {
+		this.checksum.update(input, offset, len);
+	}
+
+	@Override
+	protected void engineUpdate(ByteBuffer input) {
+		if (this.updateBuffer == null) {
+			super.engineUpdate(input);
+			return;
+		}
+		try {
+			this.updateBuffer.invoke(this.checksum, input);
+		} catch (IllegalAccessException | InvocationTargetException ex) {
+			super.engineUpdate(input);
+		}
+	}
+
+	@Override
+	protected int engineGetDigestLength() {
+		return 4;
+	}
+
+	@Override
+	protected byte[] engineDigest() {
+		long value = this.checksum.getValue();
+		this.checksum.reset();
+		return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+	}
+
+	@Override
+	protected void engineReset() {
+		this.checksum.reset();
+	}
+
+	private static Class<?> load(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException ex) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,265 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies one file channel to another in bounded chunks. Each chunk is moved by the kernel
+ * where the platform supports it and through a direct buffer where it does not.
+ * The number of bytes every call actually moved is checked, so a short transfer
+ * never goes unnoticed. Sparse files can be copied with their holes, which are detected as
+ * aligned blocks of zeros and left unwritten on the target.
+ *
+ * @author Nouman Tayyab
+ */
+public class FileCopier {
+
+	private static String GACOM = "com.UKExactly";
+	/**
+	 * Bytes moved per transfer call, progress is reported and cancellation checked after each one.
+	 */
+	public static final long CHUNK_SIZE = 32L * 1024 * 1024;
+	/**
+	 * Buffer used where zero-copy is not supported.
+	 */
+	private static final int BUFFER_SIZE = 8 * 1024 * 1024;
+	/**
+	 * Blocks of zeros of this size, aligned in the file, become holes in a sparse copy.
+	 */
+	public static final int SPARSE_BLOCK = 4096;
+	/**
+	 * Smallest file worth preallocating.
+	 */
+	private static final long PREALLOCATE_MIN = 1024 * 1024;
+	/**
+	 * Extending a file reserves its clusters on Windows, elsewhere it only creates a hole.
+	 */
+	private static final boolean SET_LENGTH_ALLOCATES = System.getProperty("os.name").toLowerCase().startsWith("windows");
+	private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+	};
+
+	/**
+	 * Receives the progress of a copy.
+	 */
+	public interface Progress {
+
+		/**
+		 * Called after every chunk on the copying thread.
+		 *
+		 * @param copied bytes copied so far
+		 * @param size   size of the file
+		 * @return false to cancel the copy
+		 */
+		boolean copied(long copied, long size);
+	}
+
+	private FileCopier() {
+	}
+
+	/**
+	 * Copy the whole input channel to the start of the output channel.
+	 *
+	 * @param input    channel to read, from position 0
+	 * @param output   channel to write, from position 0
+	 * @param progress progress callback, may be null
+	 * @return bytes copied
+	 * @throws InterruptedIOException if the progress callback cancelled the copy
+	 * @throws IOException            if the copy failed or came out short
+	 */
+	public static long copy(FileChannel input, FileChannel output, Progress progress) throws IOException {
+		long size = input.size();
+		long position = 0;
+		boolean zeroCopy = true;
+		while (position < size) {
+			long length = Math.min(CHUNK_SIZE, size - position);
+			long copied = 0;
+			if (zeroCopy) {
+				try {
+					copied = output.transferFrom(input, position, length);
+				} catch (IOException | UnsupportedOperationException ex) {
+					Logger.getLogger(GACOM).log(Level.FINE, "Zero-copy transfer not supported, copying through a buffer", ex);
+				}
+				// a transfer that moved nothing is not trusted, the chunk is copied again through a buffer
+				zeroCopy = copied > 0;
+			}
+			if (!zeroCopy) {
+				copied = copyBuffered(input, output, position, length);
+			}
+			if (copied <= 0) {
+				throw new IOException("Source ended at " + position + " of " + size + " bytes");
+			}
+			position += copied;
+			if (progress != null && !progress.copied(position, size)) {
+				throw new InterruptedIOException("Copy cancelled at " + position + " of " + size + " bytes");
+			}
+		}
+		if (output.size() > size) {
+			output.truncate(size);
+		}
+		return position;
+	}
+
+	/**
+	 * Copy the whole input channel to the output channel, leaving blocks of zeros as holes.
+	 * Holes are only created where the file system of the output supports sparse files,
+	 * elsewhere the blocks read back as zeros just the same.
+	 *
+	 * @param input    channel to read, from position 0
+	 * @param output   channel to write, it is truncated first
+	 * @param progress progress callback, may be null
+	 * @return bytes left as holes
+	 * @throws InterruptedIOException if the progress callback cancelled the copy
+	 * @throws IOException            if the copy failed or came out short
+	 */
+	public static long copySparse(FileChannel input, FileChannel output, Progress progress) throws IOException {
+		long size = input.size();
+		long position = 0;
+		long holes = 0;
+		ByteBuffer buffer = BUFFERS.get();
+		output.truncate(0);
+		while (position < size) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), size - position));
+			int read = input.read(buffer, position);
+			if (read <= 0) {
+				throw new IOException("Source ended at " + position + " of " + size + " bytes");
+			}
+			buffer.flip();
+			holes += writeSparse(output, buffer, position);
+			position += read;
+			if (progress != null && !progress.copied(position, size)) {
+				throw new InterruptedIOException("Copy cancelled at " + position + " of " + size + " bytes");
+			}
+		}
+		setSize(output, size);
+		return holes;
+	}
+
+	/**
+	 * Write the remaining bytes of a buffer at a position of the output, skipping aligned blocks of zeros.
+	 * The output must not hold data at the skipped blocks, setSize has to be called once all is written.
+	 *
+	 * @param output   channel to write
+	 * @param data     bytes to write, consumed
+	 * @param position file position of the first byte
+	 * @return bytes skipped
+	 * @throws IOException if the write fails
+	 */
+	public static long writeSparse(FileChannel output, ByteBuffer data, long position) throws IOException {
+		long skipped = 0;
+		int start = data.position();
+		int limit = data.limit();
+		int run = start;
+		int offset = start;
+		while (offset < limit) {
+			// blocks end at multiples of SPARSE_BLOCK in the file, not in the buffer
+			long filePosition = position + offset - start;
+			int end = (int) Math.min(limit, offset + SPARSE_BLOCK - filePosition % SPARSE_BLOCK);
+			if (end - offset == SPARSE_BLOCK && isZero(data, offset, end)) {
+				writeRange(output, data, run, offset, position + run - start);
+				skipped += SPARSE_BLOCK;
+				run = end;
+			}
+			offset = end;
+		}
+		writeRange(output, data, run, limit, position + run - start);
+		data.position(limit);
+		return skipped;
+	}
+
+	/**
+	 * Give the output its final size, so a hole at the end of the file is kept.
+	 *
+	 * @param output channel written with writeSparse
+	 * @param size   size of the source
+	 * @throws IOException if the write fails
+	 */
+	public static void setSize(FileChannel output, long size) throws IOException {
+		if (output.size() < size) {
+			output.write(ByteBuffer.wrap(new byte[1]), size - 1);
+		}
+	}
+
+	/**
+	 * Reserve the final size of a target file before it is written, so a full drop volume fails
+	 * the copy up front and NTFS can allocate the file in fewer pieces. Only done on Windows,
+	 * where setLength allocates the clusters. On other platforms it would only create a hole,
+	 * so nothing is done there. Small files are left alone.
+	 *
+	 * @param file empty target file
+	 * @param size size of the source
+	 * @throws IOException if the space cannot be reserved
+	 */
+	public static void preallocate(RandomAccessFile file, long size) throws IOException {
+		if (SET_LENGTH_ALLOCATES && size >= PREALLOCATE_MIN) {
+			file.setLength(size);
+		}
+	}
+
+	private static boolean isZero(ByteBuffer data, int from, int to) {
+		int offset = from;
+		for (; offset + 8 <= to; offset += 8) {
+			if (data.getLong(offset) != 0) {
+				return false;
+			}
+		}
+		for (; offset < to; offset++) {
+			if (data.get(offset) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void writeRange(FileChannel output, ByteBuffer data, int from, int to, long position) throws IOException {
+		if (from >= to) {
+			return;
+		}
+		ByteBuffer range = data.duplicate();
+		range.limit(to);
+		range.position(from);
+		long written = position;
+		while (range.hasRemaining()) {
+			written += output.write(range, written);
+		}
+	}
+
+	private static long copyBuffered(FileChannel input, FileChannel output, long position, long length) throws IOException {
+		ByteBuffer buffer = BUFFERS.get();
+		long copied = 0;
+		while (copied < length) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), length - copied));
+			int read = input.read(buffer, position + copied);
+			if (read < 0) {
+				break;
+			}
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				copied += output.write(buffer, position + copied);
+			}
+		}
+		return copied;
+	}
+}
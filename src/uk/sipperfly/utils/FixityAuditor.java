@@ -0,0 +1,299 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import uk.sipperfly.persistent.AuditRecord;
+import uk.sipperfly.persistent.Configurations;
+import uk.sipperfly.repository.AuditRecordRepo;
+import uk.sipperfly.repository.ConfigurationsRepo;
+
+/**
+ * Periodic fixity audit of the bags delivered to the drop location. Every bag folder and
+ * zipped bag is re-hashed against its manifests on one low priority thread, within the
+ * configured read budget and time windows. Progress is saved as the audit goes, so a pass
+ * that is interrupted by a restart resumes after the last file it checked.
+ *
+ * @author Nouman Tayyab
+ */
+public class FixityAuditor implements Runnable {
+
+	private static String GACOM = "com.UKExactly";
+	private static final long DAY = 24L * 60 * 60 * 1000;
+	private static final long SAVE_INTERVAL = 30L * 1000;
+	private static final int BUFFER_SIZE = 256 * 1024;
+	/**
+	 * A bag written to within this time may still be in the making and is left for a later run.
+	 */
+	private static final long SETTLE_TIME = 60L * 60 * 1000;
+	private static ScheduledExecutorService scheduler;
+
+	/**
+	 * Start the hourly audit on a background thread, once per application.
+	 */
+	public static synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "exactly-audit");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new FixityAuditor(), 5, 60, TimeUnit.MINUTES);
+	}
+
+	@Override
+	public void run() {
+		try {
+			Configurations config = new ConfigurationsRepo().getOneOrCreateOne();
+			if (!config.getAuditEnabled() || config.getDropLocation() == null || config.getDropLocation().isEmpty()) {
+				return;
+			}
+			this.audit(new File(config.getDropLocation()), config);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException ex) {
+			// keep the schedule alive, the next run starts over from the saved progress
+			Logger.getLogger(GACOM).log(Level.SEVERE, "Fixity audit failed", ex);
+		}
+	}
+
+	/**
+	 * Audit every bag below a folder that is due.
+	 *
+	 * @param dropLocation folder holding delivered bags
+	 * @param config       audit settings
+	 * @throws InterruptedException
+	 */
+	public void audit(File dropLocation, Configurations config) throws InterruptedException {
+		AuditWindow window = AuditWindow.parse(config.getAuditWindows());
+		RateLimiter limiter = new RateLimiter(config.getAuditRate() * 1024L * 1024L);
+		long interval = Math.max(1, config.getAuditIntervalDays()) * DAY;
+		AuditRecordRepo repo = new AuditRecordRepo();
+		try {
+			final Map<String, AuditRecord> records = new HashMap<String, AuditRecord>();
+			for (AuditRecord record : repo.getAll()) {
+				records.put(record.getBagPath(), record);
+			}
+			List<File> bags = new ArrayList<File>();
+			File[] children = dropLocation.listFiles();
+			if (children == null) {
+				return;
+			}
+			for (File child : children) {
+				if ((child.isDirectory() && new File(child, "bagit.txt").isFile())
+						|| (child.isFile() && child.getName().toLowerCase().endsWith(".zip"))) {
+					bags.add(child);
+				}
+			}
+			// unfinished passes first, then bags never audited, then the longest unaudited
+			Collections.sort(bags, new Comparator<File>() {
+				@Override
+				public int compare(File a, File b) {
+					return Long.compare(rank(records.get(a.getAbsolutePath())), rank(records.get(b.getAbsolutePath())));
+				}
+			});
+			long now = System.currentTimeMillis();
+			for (File bag : bags) {
+				AuditRecord record = records.get(bag.getAbsolutePath());
+				if (record != null && record.getPassStarted() == 0 && now - record.getLastCompleted() < interval) {
+					continue;
+				}
+				if (isBeingWritten(bag, now)) {
+					Logger.getLogger(GACOM).log(Level.INFO, "Fixity audit of {0} postponed, it is still being written", bag);
+					continue;
+				}
+				if (record == null) {
+					record = new AuditRecord();
+					record.setBagPath(bag.getAbsolutePath());
+				}
+				this.auditBag(bag, record, repo, window, limiter);
+			}
+		} finally {
+			repo.close();
+		}
+	}
+
+	/**
+	 * Check whether a transfer is staging or packing the bag: it has a transfer journal, or the
+	 * archive, the folder or one of its tag files changed recently. Payload files keep the
+	 * modification time of their source and tell nothing.
+	 */
+	private static boolean isBeingWritten(File bag, long now) {
+		if (Files.exists(TransferJournal.pathFor(bag.toPath()))) {
+			return true;
+		}
+		long modified = bag.lastModified();
+		File[] children = bag.isDirectory() ? bag.listFiles() : null;
+		if (children != null) {
+			for (File child : children) {
+				if (child.isFile()) {
+					modified = Math.max(modified, child.lastModified());
+				}
+			}
+		}
+		return now - modified < SETTLE_TIME;
+	}
+
+	private static long rank(AuditRecord record) {
+		if (record == null) {
+			return 0;
+		}
+		if (record.getPassStarted() > 0) {
+			return -1;
+		}
+		return record.getLastCompleted();
+	}
+
+	/**
+	 * Check every file of one bag, continuing an unfinished pass.
+	 */
+	private void auditBag(File bag, AuditRecord record, AuditRecordRepo repo, AuditWindow window, RateLimiter limiter) throws InterruptedException {
+		window.await();
+		if (record.getPassStarted() == 0) {
+			record.setPassStarted(System.currentTimeMillis());
+			record.setResumeAfter(null);
+			record.setFilesChecked(0);
+			record.setBytesChecked(0);
+			record.setFailures("");
+			Logger.getLogger(GACOM).log(Level.INFO, "Fixity audit of {0} started", bag);
+		} else {
+			Logger.getLogger(GACOM).log(Level.INFO, "Fixity audit of {0} resumed after {1}", new Object[]{bag, record.getResumeAfter()});
+		}
+		record = repo.save(record);
+		StringBuilder failures = new StringBuilder(record.getFailures() == null ? "" : record.getFailures());
+		BagSource source = null;
+		boolean error = false;
+		try {
+			source = bag.isDirectory() ? FolderBag.open(bag) : ZipBag.open(bag);
+			String incomplete = source instanceof FolderBag ? ((FolderBag) source).checkComplete() : ((ZipBag) source).checkComplete();
+			if (incomplete != null && failures.indexOf(incomplete) < 0) {
+				failures.append(incomplete).append('\n');
+				Logger.getLogger(GACOM).log(Level.SEVERE, "Fixity audit of {0}: {1}", new Object[]{bag, incomplete});
+			}
+			Map<String, Map<String, String>> expected = source.getExpectedChecksums();
+			List<String> paths = new ArrayList<String>(expected.keySet());
+			Collections.sort(paths);
+			long saved = System.currentTimeMillis();
+			for (String path : paths) {
+				if (record.getResumeAfter() != null && path.compareTo(record.getResumeAfter()) <= 0) {
+					continue;
+				}
+				String failure = this.check(source, path, expected.get(path), record, window, limiter);
+				if (failure != null) {
+					failures.append(path).append(": ").append(failure).append('\n');
+					Logger.getLogger(GACOM).log(Level.SEVERE, "Fixity audit of {0}: {1} {2}", new Object[]{bag, path, failure});
+				}
+				record.setResumeAfter(path);
+				record.setFilesChecked(record.getFilesChecked() + 1);
+				record.setFailures(failures.toString());
+				if (System.currentTimeMillis() - saved > SAVE_INTERVAL) {
+					record = repo.save(record);
+					saved = System.currentTimeMillis();
+				}
+			}
+			record.setLastResult(failures.length() == 0 ? "VALID" : "INVALID");
+		} catch (IOException ex) {
+			failures.append(ex.getMessage()).append('\n');
+			record.setLastResult("ERROR");
+			error = true;
+			Logger.getLogger(GACOM).log(Level.SEVERE, "Fixity audit of " + bag + " failed", ex);
+		} catch (InterruptedException ex) {
+			// leave the pass open so that the next run resumes it
+			repo.save(record);
+			throw ex;
+		} finally {
+			if (source != null) {
+				try {
+					source.close();
+				} catch (IOException ex) {
+					Logger.getLogger(GACOM).log(Level.WARNING, "Unable to close " + bag, ex);
+				}
+			}
+		}
+		record.setFailures(failures.toString());
+		if (!error) {
+			// a bag that could not be read is tried again on the next run
+			record.setLastCompleted(System.currentTimeMillis());
+		}
+		record.setPassStarted(0);
+		record.setResumeAfter(null);
+		repo.save(record);
+		Logger.getLogger(GACOM).log(Level.INFO, "Fixity audit of {0} finished: {1}, {2} files, {3} bytes",
+				new Object[]{bag, record.getLastResult(), record.getFilesChecked(), String.valueOf(record.getBytesChecked())});
+	}
+
+	/**
+	 * Hash one file within the read budget.
+	 *
+	 * @return description of the failure, null if every checksum matches
+	 */
+	private String check(BagSource source, String path, Map<String, String> checksums, AuditRecord record, AuditWindow window, RateLimiter limiter) throws InterruptedException {
+		List<String> algorithms = new ArrayList<String>(checksums.keySet());
+		MessageDigest[] digests;
+		try {
+			digests = HashingEngine.createDigests(algorithms);
+		} catch (NoSuchAlgorithmException ex) {
+			return "unsupported algorithm " + ex.getMessage();
+		}
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try (InputStream in = source.open(path)) {
+			int read;
+			int reads = 0;
+			while ((read = in.read(buffer)) > 0) {
+				limiter.acquire(read);
+				for (MessageDigest digest : digests) {
+					digest.update(buffer, 0, read);
+				}
+				record.setBytesChecked(record.getBytesChecked() + read);
+				if (++reads % 256 == 0) {
+					window.await();
+				}
+			}
+		} catch (FileNotFoundException ex) {
+			return "missing";
+		} catch (IOException ex) {
+			return "unreadable, " + ex.getMessage();
+		}
+		Map<String, String> actual = HashingEngine.toHex(algorithms, digests);
+		for (Map.Entry<String, String> checksum : checksums.entrySet()) {
+			if (!checksum.getValue().equalsIgnoreCase(actual.get(checksum.getKey()))) {
+				return checksum.getKey() + " checksum does not match the manifest";
+			}
+		}
+		return null;
+	}
+}
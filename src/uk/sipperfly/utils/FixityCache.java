@@ -0,0 +1,286 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import uk.sipperfly.persistent.Configurations;
+import uk.sipperfly.persistent.FixityRecord;
+import uk.sipperfly.repository.FixityRecordRepo;
+
+/**
+ * Digests computed by earlier runs, stored in the embedded database.
+ * A digest is reused only while the absolute path, size, modification time and file key of the file are unchanged.
+ * Lookups are served from memory so worker threads never touch the entity manager,
+ * new digests are written back in one transaction by flush.
+ *
+ * @author Nouman Tayyab
+ */
+public class FixityCache {
+
+	private static String GACOM = "com.UKExactly";
+	private static final long DAY = 24L * 60 * 60 * 1000;
+	private final FixityRecordRepo repo;
+	private final boolean forceRehash;
+	private final Map<String, FixityRecord> records = new ConcurrentHashMap<String, FixityRecord>();
+	private final Map<String, FixityRecord> dirty = new ConcurrentHashMap<String, FixityRecord>();
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	/**
+	 * Constructor for FixityCache
+	 *
+	 * @param forceRehash   never serve cached digests, only store new ones
+	 * @param retentionDays records unused for this many days are evicted, 0 or less keeps them
+	 */
+	public FixityCache(boolean forceRehash, int retentionDays) {
+		this.repo = new FixityRecordRepo();
+		this.forceRehash = forceRehash;
+		if (retentionDays > 0) {
+			int evicted = this.repo.evictOlderThan(System.currentTimeMillis() - retentionDays * DAY);
+			if (evicted > 0) {
+				Logger.getLogger(GACOM).log(Level.INFO, "Evicted {0} fixity cache records", evicted);
+			}
+		}
+	}
+
+	/**
+	 * Open the cache for the current configuration.
+	 *
+	 * @param config
+	 * @return the cache or null if it is disabled
+	 */
+	public static FixityCache open(Configurations config) {
+		if (!config.getFixityCache()) {
+			return null;
+		}
+		try {
+			return new FixityCache(config.getForceRehash(), config.getFixityCacheDays());
+		} catch (RuntimeException ex) {
+			Logger.getLogger(GACOM).log(Level.SEVERE, "Fixity cache unavailable", ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Load the records of every file below a source folder or of a single file.
+	 *
+	 * @param root folder or file about to be hashed
+	 */
+	public void load(File root) {
+		String prefix = root.getAbsolutePath();
+		if (root.isDirectory()) {
+			prefix = prefix + File.separator;
+		}
+		for (FixityRecord record : this.repo.getByPrefix(prefix)) {
+			this.records.put(record.getPath(), record);
+		}
+	}
+
+	/**
+	 * Read the attributes a cached digest is keyed by. Must be read before the file is hashed.
+	 *
+	 * @param file
+	 * @return key of the current state of the file
+	 * @throws IOException
+	 */
+	public static Key keyOf(File file) throws IOException {
+		Path path = file.toPath();
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		String fileKey = null;
+		if (attributes.fileKey() != null) {
+			try {
+				// a copy gets the modification and creation time of its source, only the inode and
+				// the change time are its own, the change time moves on every write
+				fileKey = attributes.fileKey() + "@" + Files.getAttribute(path, "unix:ctime");
+			} catch (UnsupportedOperationException | IllegalArgumentException ex) {
+				fileKey = null;
+			}
+		}
+		// without them (i.e. on Windows) a file re-copied to the same path would look unchanged, it is never cached
+		return new Key(file.getAbsolutePath(), attributes.size(), attributes.lastModifiedTime().toMillis(), fileKey);
+	}
+
+	/**
+	 * Get the cached digests of a file.
+	 *
+	 * @param key        current key of the file
+	 * @param algorithms algorithms that are needed
+	 * @return algorithm to hex digest or null if any of them is not cached for this key
+	 */
+	public Map<String, String> lookup(Key key, List<String> algorithms) {
+		FixityRecord record = this.records.get(key.path);
+		if (this.forceRehash || record == null || !key.isStable()
+				|| record.getFileSize() != key.size
+				|| record.getLastModified() != key.lastModified
+				|| !key.fileKey.equals(record.getFileKey())) {
+			this.misses.incrementAndGet();
+			return null;
+		}
+		Map<String, String> digests = parse(record.getDigests());
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		for (String algorithm : algorithms) {
+			String digest = digests.get(algorithm);
+			if (digest == null) {
+				this.misses.incrementAndGet();
+				return null;
+			}
+			result.put(algorithm, digest);
+		}
+		long now = System.currentTimeMillis();
+		if (now - record.getLastUsed() > DAY) {
+			record.setLastUsed(now);
+			this.dirty.put(key.path, record);
+		}
+		this.hits.incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * Remember freshly computed digests.
+	 *
+	 * @param key     key read before the file was hashed
+	 * @param digests algorithm to hex digest
+	 */
+	public void record(Key key, Map<String, String> digests) {
+		if (!key.isStable()) {
+			return;
+		}
+		FixityRecord record = this.records.get(key.path);
+		if (record == null) {
+			record = new FixityRecord();
+			record.setPath(key.path);
+		}
+		record.setFileSize(key.size);
+		record.setLastModified(key.lastModified);
+		record.setFileKey(key.fileKey);
+		record.setDigests(format(digests));
+		record.setLastUsed(System.currentTimeMillis());
+		this.records.put(key.path, record);
+		this.dirty.put(key.path, record);
+	}
+
+	/**
+	 * Write new and touched records to the database.
+	 */
+	public void flush() {
+		if (this.dirty.isEmpty()) {
+			return;
+		}
+		try {
+			this.repo.saveAll(this.dirty.values());
+			this.dirty.clear();
+		} catch (RuntimeException ex) {
+			Logger.getLogger(GACOM).log(Level.SEVERE, "Could not save fixity cache", ex);
+		}
+		Logger.getLogger(GACOM).log(Level.INFO, "Fixity cache: {0} reused, {1} hashed", new Object[]{this.hits.get(), this.misses.get()});
+	}
+
+	/**
+	 * Flush and release the database connection.
+	 */
+	public void close() {
+		this.flush();
+		this.repo.close();
+	}
+
+	/**
+	 * Delete every cached digest.
+	 */
+	public static void clear() {
+		FixityRecordRepo repo = new FixityRecordRepo();
+		repo.truncate();
+		repo.close();
+	}
+
+	private static String format(Map<String, String> digests) {
+		StringBuilder out = new StringBuilder();
+		for (Map.Entry<String, String> digest : digests.entrySet()) {
+			if (out.length() > 0) {
+				out.append(',');
+			}
+			out.append(digest.getKey()).append('=').append(digest.getValue());
+		}
+		return out.toString();
+	}
+
+	private static Map<String, String> parse(String value) {
+		Map<String, String> digests = new LinkedHashMap<String, String>();
+		if (value == null) {
+			return digests;
+		}
+		for (String pair : value.split(",")) {
+			int index = pair.indexOf('=');
+			if (index > 0) {
+				digests.put(pair.substring(0, index), pair.substring(index + 1));
+			}
+		}
+		return digests;
+	}
+
+	/**
+	 * Attributes a cached digest is keyed by.
+	 */
+	public static class Key {
+
+		private final String path;
+		private final long size;
+		private final long lastModified;
+		private final String fileKey;
+
+		Key(String path, long size, long lastModified, String fileKey) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.fileKey = fileKey;
+		}
+
+		/**
+		 * Get size in bytes.
+		 *
+		 * @return
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Check whether the key tells a file from a later copy to the same path.
+		 *
+		 * @return false if the platform has no file key and change time
+		 */
+		public boolean isStable() {
+			return fileKey != null;
+		}
+
+		/**
+		 * Size, modification time and file key in one string, changes whenever the file does.
+		 * Only meaningful for stable keys.
+		 *
+		 * @return
+		 */
+		String state() {
+			return size + "/" + lastModified + "/" + fileKey;
+		}
+	}
+}
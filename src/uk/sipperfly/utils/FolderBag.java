@@ -0,0 +1,126 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A bag in a folder, read without the bagit library.
+ *
+ * @author Nouman Tayyab
+ */
+public class FolderBag extends BagSource {
+
+	private final File root;
+
+	private FolderBag(File root, boolean manifestsRead) {
+		super(manifestsRead);
+		this.root = root;
+	}
+
+	/**
+	 * Open a bag folder and read its tag files.
+	 *
+	 * @param root bag root holding bagit.txt
+	 * @return the bag
+	 * @throws IOException if the folder holds no bagit.txt or a tag file cannot be read
+	 */
+	public static FolderBag open(File root) throws IOException {
+		if (!new File(root, "bagit.txt").isFile()) {
+			throw new IOException("No bagit.txt found in " + root);
+		}
+		FolderBag bag = new FolderBag(root, true);
+		bag.readTagFiles();
+		return bag;
+	}
+
+	/**
+	 * Get the bag root.
+	 *
+	 * @return
+	 */
+	public File getRoot() {
+		return root;
+	}
+
+	/**
+	 * Check the structure of the bag without reading any payload: bagit.txt, the data folder
+	 * and a payload manifest exist, and the manifests list exactly the files in the data folder.
+	 *
+	 * @return description of the first problem, null if the bag is complete
+	 */
+	public String checkComplete() {
+		this.requireManifests();
+		if (this.getVersion() == null) {
+			return "bagit.txt does not declare a BagIt-Version.";
+		}
+		if (this.payloadManifests.isEmpty()) {
+			return "The bag has no payload manifest.";
+		}
+		File data = new File(this.root, "data");
+		if (!data.isDirectory()) {
+			return "The bag has no data folder.";
+		}
+		List<File> files = new ArrayList<File>();
+		CommonUtil.listFiles(data, files);
+		Set<String> payload = new HashSet<String>();
+		for (File file : files) {
+			payload.add(CommonUtil.relativeKey(this.root.toPath(), file.toPath()));
+		}
+		for (Map.Entry<String, Map<String, String>> manifest : this.payloadManifests.entrySet()) {
+			for (String path : manifest.getValue().keySet()) {
+				if (!payload.contains(path)) {
+					return "File " + path + " is listed in manifest-" + manifest.getKey() + " but missing from the bag.";
+				}
+			}
+			for (String path : payload) {
+				if (!manifest.getValue().containsKey(path)) {
+					return "File " + path + " is not listed in the " + manifest.getKey() + " payload manifest.";
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public InputStream open(String path) throws IOException {
+		return new FileInputStream(new File(this.root, path.replace('/', File.separatorChar)));
+	}
+
+	@Override
+	protected Collection<String> rootFiles() {
+		List<String> names = new ArrayList<String>();
+		File[] children = this.root.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				if (child.isFile()) {
+					names.add(child.getName());
+				}
+			}
+		}
+		return names;
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,109 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the stream, mapped, direct buffer and read-ahead hashing paths over a range of file sizes
+ * to find where the channel paths start to pay off. Run it on the disk the payloads live on:
+ *
+ * java -cp Exactly.jar uk.sipperfly.utils.HashBenchmark [directory] [max size in MB] [algorithm]
+ *
+ * Files smaller than the free memory are read from the page cache after the first pass,
+ * so the numbers show the cost of the read path rather than the disk.
+ *
+ * @author Nouman Tayyab
+ */
+public class HashBenchmark {
+
+	private static final int MB = 1024 * 1024;
+	private static final int RUNS = 3;
+	private static final int READ_AHEAD_DEPTH = 4;
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args directory for the temporary files, largest size in MB, algorithm
+	 * @throws IOException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static void main(String[] args) throws IOException, NoSuchAlgorithmException {
+		File directory = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+		int maxSize = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+		List<String> algorithms = Collections.singletonList(args.length > 2 ? args[2] : "MD5");
+
+		System.out.println("Directory: " + directory.getAbsolutePath()
+				+ (HashingEngine.isNetworkFile(directory) ? " (network)" : ""));
+		System.out.println(String.format("%10s %12s %12s %12s %14s", "Size MB", "Stream MB/s", "Mapped MB/s", "Channel MB/s", "ReadAhead MB/s"));
+		int crossover = -1;
+		for (int size = 1; size <= maxSize; size *= 4) {
+			File file = createFile(directory, size);
+			try {
+				double stream = 0;
+				double mapped = 0;
+				double channel = 0;
+				double readAhead = 0;
+				for (int run = 0; run < RUNS; run++) {
+					long start = System.nanoTime();
+					HashingEngine.checkSumsStream(file, algorithms, null);
+					stream = Math.max(stream, throughput(size, start));
+					start = System.nanoTime();
+					HashingEngine.checkSumsMapped(file, algorithms, null);
+					mapped = Math.max(mapped, throughput(size, start));
+					start = System.nanoTime();
+					HashingEngine.checkSumsChannel(file, algorithms, null);
+					channel = Math.max(channel, throughput(size, start));
+					start = System.nanoTime();
+					HashingEngine.checkSumsReadAhead(file, algorithms, null, READ_AHEAD_DEPTH);
+					readAhead = Math.max(readAhead, throughput(size, start));
+				}
+				System.out.println(String.format("%10d %12.1f %12.1f %12.1f %14.1f", size, stream, mapped, channel, readAhead));
+				if (crossover < 0 && Math.max(Math.max(mapped, channel), readAhead) > stream * 1.05) {
+					crossover = size;
+				}
+			} finally {
+				file.delete();
+			}
+		}
+		if (crossover < 0) {
+			System.out.println("The stream path was never more than 5% slower.");
+		} else {
+			System.out.println("Channel reads are faster from " + crossover + " MB, current threshold is "
+					+ (HashingEngine.LARGE_FILE_THRESHOLD / MB) + " MB.");
+		}
+	}
+
+	private static double throughput(int size, long start) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		return size / seconds;
+	}
+
+	private static File createFile(File directory, int size) throws IOException {
+		File file = File.createTempFile("exactly-bench", ".bin", directory);
+		byte[] block = new byte[MB];
+		new Random(size).nextBytes(block);
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			for (int i = 0; i < size; i++) {
+				out.write(block);
+			}
+		}
+		return file;
+	}
+}
@@ -0,0 +1,967 @@
+/*
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Hashes many files at once on a bounded pool of worker threads.
+ * Results are handed to a listener in the order the files finish.
+ *
+ * @author Nouman Tayyab
+ */
+public class HashingEngine {
+
+	private static String GACOM = "com.UKExactly";
+	/**
+	 * Read buffer used by every worker.
+	 */
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
+	/**
+	 * Files of at least this size are hashed through a FileChannel instead of the stream.
+	 */
+	public static final long LARGE_FILE_THRESHOLD = 64L * 1024 * 1024;
+	/**
+	 * Size of each mapped window of a large local file.
+	 */
+	private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+	/**
+	 * Direct read buffer used for large files on network mounts, where mapping is unsafe.
+	 */
+	private static final int DIRECT_BUFFER_SIZE = 8 * 1024 * 1024;
+	/**
+	 * Alignment of the buffers used for direct I/O, a multiple of every common block size.
+	 */
+	private static final int DIRECT_IO_ALIGNMENT = 64 * 1024;
+	private static final ThreadLocal<ByteBuffer> ALIGNED_BUFFERS = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return DirectIO.allocate(DIRECT_BUFFER_SIZE, DIRECT_IO_ALIGNMENT);
+		}
+	};
+	private static final ThreadLocal<ByteBuffer> DIRECT_BUFFERS = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE);
+		}
+	};
+	/**
+	 * FileStore types of network file systems.
+	 */
+	private static final List<String> NETWORK_FILE_STORES = Arrays.asList(
+			"nfs", "nfs4", "cifs", "smb", "smbfs", "smb2", "afpfs", "webdav", "davfs", "fuse.sshfs", "9p", "ncpfs");
+	private final ThreadPoolExecutor executor;
+	private final int threads;
+	private volatile FixityCache fixityCache;
+	private volatile VerifyReport verifyReport;
+	private volatile boolean autoTune;
+
+	/**
+	 * Receives a callback for every file as soon as it has been hashed.
+	 */
+	public interface HashListener {
+
+		/**
+		 * Called on the thread that started the hashing.
+		 *
+		 * @param file      the file that was hashed
+		 * @param checksums algorithm to hex digest, null if the file could not be read
+		 * @param bytes     size of the file
+		 */
+		void fileHashed(File file, Map<String, String> checksums, long bytes);
+	}
+
+	/**
+	 * Constructor for HashingEngine using one thread per processor.
+	 */
+	public HashingEngine() {
+		this(0);
+	}
+
+	/**
+	 * Constructor for HashingEngine
+	 *
+	 * @param threads number of worker threads, 0 or less for one per processor
+	 */
+	public HashingEngine(int threads) {
+		if (threads < 1) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		this.threads = threads;
+		final AtomicInteger count = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+				// leave room for the largest pool the tuner may pick
+				new ArrayBlockingQueue<Runnable>(Math.max(threads, ConcurrencyTuner.MAX_THREADS) * 4),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "exactly-hash-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				},
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Get number of worker threads.
+	 *
+	 * @return thread count
+	 */
+	public int getThreads() {
+		return this.executor.getCorePoolSize();
+	}
+
+	/**
+	 * Change the number of worker threads, tasks already queued are kept.
+	 *
+	 * @param threads new thread count, at least 1
+	 */
+	public synchronized void setThreads(int threads) {
+		threads = Math.max(1, threads);
+		// the core size may never exceed the maximum, so grow the maximum first and shrink it last
+		if (threads > this.executor.getMaximumPoolSize()) {
+			this.executor.setMaximumPoolSize(threads);
+			this.executor.setCorePoolSize(threads);
+		} else {
+			this.executor.setCorePoolSize(threads);
+			this.executor.setMaximumPoolSize(threads);
+		}
+	}
+
+	/**
+	 * Probe the throughput of the source FileStore during every hashFiles call
+	 * and adjust the thread count to it. Decisions go to the verify report if one is set.
+	 *
+	 * @param autoTune true to tune, false to always use the configured thread count
+	 */
+	public void setAutoTune(boolean autoTune) {
+		this.autoTune = autoTune;
+		if (!autoTune) {
+			this.setThreads(this.threads);
+		}
+	}
+
+	/**
+	 * Reuse digests of unchanged files from the cache and remember new ones.
+	 *
+	 * @param fixityCache the cache or null to always read the files
+	 */
+	public void setFixityCache(FixityCache fixityCache) {
+		this.fixityCache = fixityCache;
+	}
+
+	/**
+	 * Treat every read as a read back of the staged copy: record its cost and, in DIRECT mode,
+	 * flush the file and bypass the page cache.
+	 *
+	 * @param verifyReport the report or null for plain reads
+	 */
+	public void setVerifyReport(VerifyReport verifyReport) {
+		this.verifyReport = verifyReport;
+	}
+
+	/**
+	 * Hash a single file on the calling thread, using the fixity cache if one is set.
+	 *
+	 * @param file       file to hash
+	 * @param algorithms MessageDigest algorithm names
+	 * @return algorithm to hex digest, null if the file could not be read
+	 */
+	public Map<String, String> hashFile(File file, List<String> algorithms) {
+		return this.hash(file, algorithms, 0).getChecksums();
+	}
+
+	/**
+	 * Hash a single file on the calling thread, also computing its chunk CRCs in the same read.
+	 *
+	 * @param file       file to hash
+	 * @param algorithms MessageDigest algorithm names
+	 * @param chunkSize  chunk size in bytes, 0 for no chunks
+	 * @return the result, its checksums are null if the file could not be read
+	 */
+	public HashResult hashFile(File file, List<String> algorithms, long chunkSize) {
+		return this.hash(file, algorithms, chunkSize);
+	}
+
+	/**
+	 * Hash all files on the worker pool.
+	 *
+	 * @param files     files to hash
+	 * @param algorithm MessageDigest algorithm name, i.e. MD5
+	 * @param listener  progress callback, may be null
+	 * @return file to hex digest, the digest is null for files that could not be read
+	 * @throws InterruptedException if the calling thread is interrupted
+	 */
+	public Map<File, String> hashFiles(Collection<File> files, String algorithm, HashListener listener) throws InterruptedException {
+		Map<File, Map<String, String>> all = this.hashFiles(files, Collections.singletonList(algorithm), listener);
+		Map<File, String> checksums = new HashMap<File, String>();
+		for (Map.Entry<File, Map<String, String>> entry : all.entrySet()) {
+			checksums.put(entry.getKey(), entry.getValue() == null ? null : entry.getValue().get(algorithm));
+		}
+		return checksums;
+	}
+
+	/**
+	 * Hash all files on the worker pool, computing every algorithm from a single read of each file.
+	 *
+	 * @param files      files to hash
+	 * @param algorithms MessageDigest algorithm names, i.e. MD5 and SHA-256
+	 * @param listener   progress callback, may be null
+	 * @return file to algorithm to hex digest, null for files that could not be read
+	 * @throws InterruptedException if the calling thread is interrupted
+	 */
+	public Map<File, Map<String, String>> hashFiles(Collection<File> files, List<String> algorithms, HashListener listener) throws InterruptedException {
+		Map<File, HashResult> results = this.hashFiles(files, algorithms, 0, listener);
+		Map<File, Map<String, String>> checksums = new HashMap<File, Map<String, String>>();
+		for (Map.Entry<File, HashResult> entry : results.entrySet()) {
+			checksums.put(entry.getKey(), entry.getValue().getChecksums());
+		}
+		return checksums;
+	}
+
+	/**
+	 * Hash all files on the worker pool, computing every algorithm and the chunk CRCs from a single read of each file.
+	 *
+	 * @param files      files to hash
+	 * @param algorithms MessageDigest algorithm names, i.e. MD5 and SHA-256
+	 * @param chunkSize  chunk size in bytes, 0 for no chunks
+	 * @param listener   progress callback, may be null
+	 * @return file to result
+	 * @throws InterruptedException if the calling thread is interrupted
+	 */
+	public Map<File, HashResult> hashFiles(Collection<File> files, final List<String> algorithms, final long chunkSize, HashListener listener) throws InterruptedException {
+		Map<File, HashResult> checksums = new HashMap<File, HashResult>();
+		CompletionService<HashResult> completion = this.completionService();
+		ConcurrencyTuner tuner = files.isEmpty() ? null : this.startTuning(files.iterator().next());
+		int pending = 0;
+		try {
+			for (final File file : files) {
+				completion.submit(new Callable<HashResult>() {
+					@Override
+					public HashResult call() {
+						return hash(file, algorithms, chunkSize);
+					}
+				});
+				pending++;
+				Future<HashResult> done;
+				while ((done = completion.poll()) != null) {
+					this.collect(done, checksums, listener, tuner);
+					pending--;
+				}
+			}
+			while (pending > 0) {
+				this.collect(completion.take(), checksums, listener, tuner);
+				pending--;
+			}
+		} finally {
+			this.finishTuning(tuner);
+		}
+		return checksums;
+	}
+
+	/**
+	 * Run other tasks that read files on the worker pool, i.e. the checks of a bag validation.
+	 * A task is run on the submitting thread while the queue is full.
+	 *
+	 * @param <T> result type of the tasks
+	 * @return completion service on the pool
+	 */
+	public <T> CompletionService<T> completionService() {
+		return new ExecutorCompletionService<T>(this.executor);
+	}
+
+	/**
+	 * Start tuning the thread count to the FileStore of a file, if auto-tuning is on.
+	 *
+	 * @param file a file on the FileStore about to be read
+	 * @return the tuner to report the bytes of every finished task to, null if auto-tuning is off
+	 */
+	public ConcurrencyTuner startTuning(File file) {
+		if (!this.autoTune) {
+			return null;
+		}
+		return ConcurrencyTuner.forPath("hash", file.toPath(), this.getThreads(), new ConcurrencyTuner.Resizer() {
+			@Override
+			public void resize(int threads) {
+				setThreads(threads);
+			}
+		});
+	}
+
+	/**
+	 * Stop tuning and add the decisions to the verify report, if one is set.
+	 *
+	 * @param tuner tuner from startTuning, may be null
+	 */
+	public void finishTuning(ConcurrencyTuner tuner) {
+		if (tuner == null) {
+			return;
+		}
+		tuner.finish();
+		VerifyReport report = this.verifyReport;
+		if (report != null) {
+			report.tuned(tuner.getDecisions());
+		}
+	}
+
+	/**
+	 * Verify the chunk CRCs of many files at once. Every chunk is a separate task,
+	 * so a single large file is spread over all worker threads.
+	 *
+	 * @param expected  file to expected chunk CRCs
+	 * @param chunkSize chunk size in bytes
+	 * @return file to sorted indexes of the chunks that did not match, only files with bad chunks are listed
+	 * @throws InterruptedException if the calling thread is interrupted
+	 */
+	public Map<File, List<Integer>> verifyChunks(Map<File, long[]> expected, final long chunkSize) throws InterruptedException {
+		Map<File, List<Integer>> bad = new HashMap<File, List<Integer>>();
+		final VerifyReport report = this.verifyReport;
+		if (report != null && report.getMode() == VerifyReport.Mode.DIRECT) {
+			this.syncFiles(expected.keySet(), report);
+		}
+		CompletionService<ChunkResult> completion = new ExecutorCompletionService<ChunkResult>(this.executor);
+		int pending = 0;
+		for (Map.Entry<File, long[]> entry : expected.entrySet()) {
+			final File file = entry.getKey();
+			final long[] chunks = entry.getValue();
+			for (int i = 0; i < chunks.length; i++) {
+				final int index = i;
+				completion.submit(new Callable<ChunkResult>() {
+					@Override
+					public ChunkResult call() {
+						return new ChunkResult(file, index, verifyChunk(file, index, chunkSize, chunks[index], report));
+					}
+				});
+				pending++;
+				Future<ChunkResult> done;
+				while ((done = completion.poll()) != null) {
+					this.collectChunk(done, bad);
+					pending--;
+				}
+			}
+		}
+		while (pending > 0) {
+			this.collectChunk(completion.take(), bad);
+			pending--;
+		}
+		for (List<Integer> indexes : bad.values()) {
+			Collections.sort(indexes);
+		}
+		return bad;
+	}
+
+	private void collectChunk(Future<ChunkResult> done, Map<File, List<Integer>> bad) throws InterruptedException {
+		ChunkResult result;
+		try {
+			result = done.get();
+		} catch (ExecutionException ex) {
+			Logger.getLogger(GACOM).log(Level.SEVERE, "Chunk verification failed", ex.getCause());
+			return;
+		}
+		if (!result.valid) {
+			List<Integer> indexes = bad.get(result.file);
+			if (indexes == null) {
+				indexes = new ArrayList<Integer>();
+				bad.put(result.file, indexes);
+			}
+			indexes.add(result.index);
+		}
+	}
+
+	/**
+	 * Flush files to the device on the worker pool.
+	 */
+	private void syncFiles(Collection<File> files, final VerifyReport report) throws InterruptedException {
+		CompletionService<Void> completion = new ExecutorCompletionService<Void>(this.executor);
+		for (final File file : files) {
+			completion.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					sync(file, report);
+					return null;
+				}
+			});
+		}
+		for (int i = 0; i < files.size(); i++) {
+			try {
+				completion.take().get();
+			} catch (ExecutionException ex) {
+				Logger.getLogger(GACOM).log(Level.SEVERE, "Could not flush file", ex.getCause());
+			}
+		}
+	}
+
+	private static boolean verifyChunk(File file, int index, long chunkSize, long expected, VerifyReport report) {
+		long position = index * chunkSize;
+		long start = System.nanoTime();
+		if (report != null && report.getMode() == VerifyReport.Mode.DIRECT) {
+			FileChannel channel = null;
+			try {
+				channel = DirectIO.open(file.toPath());
+			} catch (UnsupportedOperationException | IOException ex) {
+				Logger.getLogger(GACOM).log(Level.FINE, "Direct I/O not supported for " + file, ex);
+			}
+			if (channel != null) {
+				try (FileChannel direct = channel) {
+					long crc = crcUncached(direct, position, chunkSize);
+					report.fileRead(Math.min(chunkSize, file.length() - position), System.nanoTime() - start, true);
+					return crc == expected;
+				} catch (IOException ex) {
+					Logger.getLogger(GACOM).log(Level.WARNING, "Direct read failed, reading through the cache: " + file, ex);
+				}
+			}
+		}
+		boolean valid = verifyChunkCached(file, position, chunkSize, expected);
+		if (report != null) {
+			report.fileRead(Math.max(0, Math.min(chunkSize, file.length() - position)), System.nanoTime() - start, false);
+		}
+		return valid;
+	}
+
+	private static long crcUncached(FileChannel channel, long position, long chunkSize) throws IOException {
+		ByteBuffer buffer = ALIGNED_BUFFERS.get();
+		CRC32 crc = new CRC32();
+		byte[] block = BUFFERS.get();
+		long end = Math.min(position + chunkSize, channel.size());
+		while (position < end) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), DirectIO.roundUp(end - position, DIRECT_IO_ALIGNMENT)));
+			int read = channel.read(buffer, position);
+			if (read <= 0) {
+				throw new IOException("Short read at " + position);
+			}
+			buffer.flip();
+			int usable = (int) Math.min(read, end - position);
+			buffer.limit(usable);
+			while (buffer.hasRemaining()) {
+				int count = Math.min(buffer.remaining(), block.length);
+				buffer.get(block, 0, count);
+				crc.update(block, 0, count);
+			}
+			position += usable;
+		}
+		return crc.getValue();
+	}
+
+	private static boolean verifyChunkCached(File file, long position, long chunkSize, long expected) {
+		byte[] block = BUFFERS.get();
+		ByteBuffer buffer = ByteBuffer.wrap(block);
+		CRC32 crc = new CRC32();
+		long end = position + chunkSize;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			end = Math.min(end, channel.size());
+			while (position < end) {
+				buffer.clear();
+				buffer.limit((int) Math.min(block.length, end - position));
+				int read = channel.read(buffer, position);
+				if (read < 0) {
+					break;
+				}
+				crc.update(block, 0, read);
+				position += read;
+			}
+		} catch (IOException ex) {
+			Logger.getLogger(GACOM).log(Level.SEVERE, "IOException: ", ex);
+			return false;
+		}
+		return crc.getValue() == expected;
+	}
+
+	/**
+	 * Stop the worker threads.
+	 */
+	public void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	private void collect(Future<HashResult> done, Map<File, HashResult> checksums, HashListener listener, ConcurrencyTuner tuner) throws InterruptedException {
+		HashResult result;
+		try {
+			result = done.get();
+		} catch (ExecutionException ex) {
+			Logger.getLogger(GACOM).log(Level.SEVERE, "Hashing failed", ex.getCause());
+			return;
+		}
+		if (tuner != null && result.read) {
+			tuner.completed(result.bytes);
+		}
+		checksums.put(result.file, result);
+		if (listener != null) {
+			listener.fileHashed(result.file, result.checksums, result.bytes);
+		}
+	}
+
+	private HashResult hash(File file, List<String> algorithms, long chunkSize) {
+		Map<String, String> checksums = null;
+		long[] chunks = null;
+		boolean read = false;
+		FixityCache cache = this.fixityCache;
+		List<String> cached = algorithms;
+		String chunkName = null;
+		if (chunkSize > 0) {
+			// the chunk list is cached like one more algorithm
+			chunkName = ChunkDigest.algorithmName(chunkSize);
+			cached = new ArrayList<String>(algorithms);
+			cached.add(chunkName);
+		}
+		try {
+			FixityCache.Key key = null;
+			if (cache != null) {
+				key = FixityCache.keyOf(file);
+				checksums = cache.lookup(key, cached);
+			}
+			if (checksums == null) {
+				read = true;
+				ChunkDigest chunkDigest = chunkSize > 0 ? new ChunkDigest(chunkSize) : null;
+				VerifyReport report = this.verifyReport;
+				if (report == null) {
+					checksums = checkSums(file, algorithms, chunkDigest);
+				} else {
+					checksums = readBack(file, algorithms, chunkDigest, report);
+				}
+				if (chunkDigest != null) {
+					checksums.put(chunkName, ChunkDigest.format(chunkDigest.finish()));
+				}
+				if (key != null) {
+					cache.record(key, checksums);
+				}
+			}
+			if (chunkName != null) {
+				chunks = ChunkDigest.parse(checksums.remove(chunkName));
+			}
+		} catch (IOException ex) {
+			Logger.getLogger(GACOM).log(Level.SEVERE, "IOException: ", ex);
+		} catch (NoSuchAlgorithmException ex) {
+			Logger.getLogger(GACOM).log(Level.SEVERE, "NoSuchAlgorithmException: ", ex);
+		}
+		HashResult result = new HashResult(file, checksums, chunks, file.length());
+		result.read = read;
+		return result;
+	}
+
+	/**
+	 * Hash a staged file as a read back and record the cost. In DIRECT mode the file is flushed
+	 * to the device first and read with direct I/O, falling back to a cached read where the
+	 * file system does not support it.
+	 */
+	private static Map<String, String> readBack(File file, List<String> algorithms, ChunkDigest chunks, VerifyReport report) throws IOException, NoSuchAlgorithmException {
+		long start;
+		if (report.getMode() == VerifyReport.Mode.DIRECT) {
+			sync(file, report);
+			start = System.nanoTime();
+			FileChannel channel = null;
+			try {
+				channel = DirectIO.open(file.toPath());
+			} catch (UnsupportedOperationException | IOException ex) {
+				Logger.getLogger(GACOM).log(Level.FINE, "Direct I/O not supported for " + file, ex);
+			}
+			if (channel != null) {
+				try (FileChannel direct = channel) {
+					Map<String, String> checksums = checkSumsUncached(direct, algorithms, chunks);
+					report.fileRead(file.length(), System.nanoTime() - start, true);
+					return checksums;
+				} catch (IOException ex) {
+					Logger.getLogger(GACOM).log(Level.WARNING, "Direct read failed, reading through the cache: " + file, ex);
+					if (chunks != null) {
+						chunks.reset();
+					}
+				}
+			}
+		}
+		start = System.nanoTime();
+		Map<String, String> checksums = checkSums(file, algorithms, chunks);
+		report.fileRead(file.length(), System.nanoTime() - start, false);
+		return checksums;
+	}
+
+	/**
+	 * Flush a staged file before it is read back. A failed flush is recorded as such,
+	 * it never fails the read back.
+	 */
+	private static void sync(File file, VerifyReport report) {
+		long start = System.nanoTime();
+		try {
+			DirectIO.sync(file);
+			report.fileSynced(System.nanoTime() - start);
+		} catch (IOException ex) {
+			Logger.getLogger(GACOM).log(Level.WARNING, "Could not flush " + file + " to the device", ex);
+			report.syncFailed();
+		}
+	}
+
+	/**
+	 * Hash a file opened for direct I/O, reading whole aligned blocks.
+	 */
+	private static Map<String, String> checkSumsUncached(FileChannel channel, List<String> algorithms, ChunkDigest chunks) throws IOException, NoSuchAlgorithmException {
+		MessageDigest[] digests = createDigests(algorithms);
+		ByteBuffer buffer = ALIGNED_BUFFERS.get();
+		long remaining = channel.size();
+		while (remaining > 0) {
+			buffer.clear();
+			int read = channel.read(buffer);
+			if (read <= 0) {
+				throw new IOException("Short read, " + remaining + " bytes left");
+			}
+			buffer.flip();
+			if (read > remaining) {
+				buffer.limit((int) remaining);
+			}
+			for (MessageDigest md : digests) {
+				md.update(buffer.duplicate());
+			}
+			if (chunks != null) {
+				chunks.update(buffer.duplicate());
+			}
+			remaining -= buffer.limit();
+		}
+		return toHex(algorithms, digests);
+	}
+
+	/**
+	 * Calculate checksum of a single file on the calling thread.
+	 *
+	 * @param file      file to hash
+	 * @param algorithm MessageDigest algorithm name, i.e. MD5
+	 * @return hex digest
+	 * @throws IOException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static String checkSum(File file, String algorithm) throws IOException, NoSuchAlgorithmException {
+		return checkSums(file, Collections.singletonList(algorithm)).get(algorithm);
+	}
+
+	/**
+	 * Calculate several checksums of a single file on the calling thread, reading the file once.
+	 * Files above LARGE_FILE_THRESHOLD are mapped in windows, or read into a direct buffer when they live on a network mount.
+	 * With read-ahead enabled, files that are not mapped are read through a ring of asynchronous reads instead.
+	 *
+	 * @param file       file to hash
+	 * @param algorithms MessageDigest algorithm names
+	 * @return algorithm to hex digest
+	 * @throws IOException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static Map<String, String> checkSums(File file, List<String> algorithms) throws IOException, NoSuchAlgorithmException {
+		return checkSums(file, algorithms, null);
+	}
+
+	/**
+	 * Calculate several checksums and optionally the chunk CRCs of a single file, reading the file once.
+	 *
+	 * @param file       file to hash
+	 * @param algorithms MessageDigest algorithm names
+	 * @param chunks     receives every block as well, may be null
+	 * @return algorithm to hex digest
+	 * @throws IOException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static Map<String, String> checkSums(File file, List<String> algorithms, ChunkDigest chunks) throws IOException, NoSuchAlgorithmException {
+		long length = file.length();
+		if (ReadAhead.isEnabledFor(length) && (length < LARGE_FILE_THRESHOLD || isNetworkFile(file))) {
+			return checkSumsReadAhead(file, algorithms, chunks, ReadAhead.getDefaultDepth());
+		}
+		if (length >= LARGE_FILE_THRESHOLD) {
+			if (isNetworkFile(file)) {
+				return checkSumsChannel(file, algorithms, chunks);
+			}
+			try {
+				return checkSumsMapped(file, algorithms, chunks);
+			} catch (IOException ex) {
+				if (chunks != null) {
+					chunks.reset();
+				}
+				// mapping can fail when the address space is exhausted, read the file instead
+				Logger.getLogger(GACOM).log(Level.WARNING, "Mapping failed, falling back to direct reads: " + file, ex);
+				return checkSumsChannel(file, algorithms, chunks);
+			}
+		}
+		return checkSumsStream(file, algorithms, chunks);
+	}
+
+	/**
+	 * Hash everything left in a stream, i.e. an archive entry. The stream is not closed.
+	 *
+	 * @param in         stream to hash
+	 * @param algorithms MessageDigest algorithm names
+	 * @return algorithm to hex digest
+	 * @throws IOException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static Map<String, String> checkSums(InputStream in, List<String> algorithms) throws IOException, NoSuchAlgorithmException {
+		MessageDigest[] digests = createDigests(algorithms);
+		byte[] buffer = BUFFERS.get();
+		int numOfBytesRead;
+		while ((numOfBytesRead = in.read(buffer)) > 0) {
+			for (MessageDigest md : digests) {
+				md.update(buffer, 0, numOfBytesRead);
+			}
+		}
+		return toHex(algorithms, digests);
+	}
+
+	/**
+	 * Hash a file through a FileInputStream and a heap buffer.
+	 *
+	 * @param file       file to hash
+	 * @param algorithms MessageDigest algorithm names
+	 * @param chunks     receives every block as well, may be null
+	 * @return algorithm to hex digest
+	 * @throws IOException
+	 * @throws NoSuchAlgorithmException
+	 */
+	static Map<String, String> checkSumsStream(File file, List<String> algorithms, ChunkDigest chunks) throws IOException, NoSuchAlgorithmException {
+		MessageDigest[] digests = createDigests(algorithms);
+		byte[] buffer = BUFFERS.get();
+		try (FileInputStream fis = new FileInputStream(file)) {
+			int numOfBytesRead;
+			while ((numOfBytesRead = fis.read(buffer)) > 0) {
+				for (MessageDigest md : digests) {
+					md.update(buffer, 0, numOfBytesRead);
+				}
+				if (chunks != null) {
+					chunks.update(buffer, 0, numOfBytesRead);
+				}
+			}
+		}
+		return toHex(algorithms, digests);
+	}
+
+	/**
+	 * Hash a file while the next blocks are already being read.
+	 *
+	 * @param file       file to hash
+	 * @param algorithms MessageDigest algorithm names
+	 * @param chunks     receives every block as well, may be null
+	 * @param depth      blocks in flight
+	 * @return algorithm to hex digest
+	 * @throws IOException
+	 * @throws NoSuchAlgorithmException
+	 */
+	static Map<String, String> checkSumsReadAhead(File file, List<String> algorithms, ChunkDigest chunks, int depth) throws IOException, NoSuchAlgorithmException {
+		MessageDigest[] digests = createDigests(algorithms);
+		try (ReadAhead reader = new ReadAhead(file.toPath(), depth)) {
+			ByteBuffer block;
+			while ((block = reader.next()) != null) {
+				for (MessageDigest md : digests) {
+					md.update(block.duplicate());
+				}
+				if (chunks != null) {
+					chunks.update(block.duplicate());
+				}
+			}
+		}
+		return toHex(algorithms, digests);
+	}
+
+	/**
+	 * Hash a file by mapping it into memory one window at a time.
+	 *
+	 * @param file       file to hash
+	 * @param algorithms MessageDigest algorithm names
+	 * @param chunks     receives every block as well, may be null
+	 * @return algorithm to hex digest
+	 * @throws IOException
+	 * @throws NoSuchAlgorithmException
+	 */
+	static Map<String, String> checkSumsMapped(File file, List<String> algorithms, ChunkDigest chunks) throws IOException, NoSuchAlgorithmException {
+		MessageDigest[] digests = createDigests(algorithms);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			for (long position = 0; position < size; position += MAP_WINDOW_SIZE) {
+				MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW_SIZE, size - position));
+				for (MessageDigest md : digests) {
+					md.update(window.duplicate());
+				}
+				if (chunks != null) {
+					chunks.update(window.duplicate());
+				}
+			}
+		}
+		return toHex(algorithms, digests);
+	}
+
+	/**
+	 * Hash a file through a FileChannel and a large direct buffer.
+	 *
+	 * @param file       file to hash
+	 * @param algorithms MessageDigest algorithm names
+	 * @param chunks     receives every block as well, may be null
+	 * @return algorithm to hex digest
+	 * @throws IOException
+	 * @throws NoSuchAlgorithmException
+	 */
+	static Map<String, String> checkSumsChannel(File file, List<String> algorithms, ChunkDigest chunks) throws IOException, NoSuchAlgorithmException {
+		MessageDigest[] digests = createDigests(algorithms);
+		ByteBuffer buffer = DIRECT_BUFFERS.get();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			buffer.clear();
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				for (MessageDigest md : digests) {
+					md.update(buffer.duplicate());
+				}
+				if (chunks != null) {
+					chunks.update(buffer.duplicate());
+				}
+				buffer.clear();
+			}
+		}
+		return toHex(algorithms, digests);
+	}
+
+	/**
+	 * Check whether a file lives on a network mount. Mapping such files risks a crash if the
+	 * share drops or the file is truncated underneath us, so they are read instead.
+	 *
+	 * @param file
+	 * @return true for UNC paths and network file stores
+	 */
+	static boolean isNetworkFile(File file) {
+		if (file.getAbsolutePath().startsWith("\\\\")) {
+			return true;
+		}
+		try {
+			FileStore store = Files.getFileStore(file.toPath());
+			return NETWORK_FILE_STORES.contains(store.type().toLowerCase());
+		} catch (IOException ex) {
+			return true;
+		}
+	}
+
+	/**
+	 * Create one MessageDigest per algorithm.
+	 *
+	 * @param algorithms MessageDigest algorithm names
+	 * @return digests in the same order
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static MessageDigest[] createDigests(List<String> algorithms) throws NoSuchAlgorithmException {
+		MessageDigest[] digests = new MessageDigest[algorithms.size()];
+		for (int i = 0; i < digests.length; i++) {
+			String algorithm = algorithms.get(i);
+			digests[i] = FastChecksum.isFast(algorithm) ? FastChecksum.create(algorithm) : MessageDigest.getInstance(algorithm);
+		}
+		return digests;
+	}
+
+	/**
+	 * Finish the digests created by createDigests.
+	 *
+	 * @param algorithms MessageDigest algorithm names
+	 * @param digests    digests in the same order
+	 * @return algorithm to hex digest
+	 */
+	public static Map<String, String> toHex(List<String> algorithms, MessageDigest[] digests) {
+		Map<String, String> checksums = new LinkedHashMap<String, String>();
+		for (int i = 0; i < digests.length; i++) {
+			checksums.put(algorithms.get(i), CommonUtil.toHex(digests[i].digest()));
+		}
+		return checksums;
+	}
+
+	/**
+	 * Result of verifying one chunk.
+	 */
+	private static class ChunkResult {
+
+		private final File file;
+		private final int index;
+		private final boolean valid;
+
+		ChunkResult(File file, int index, boolean valid) {
+			this.file = file;
+			this.index = index;
+			this.valid = valid;
+		}
+	}
+
+	/**
+	 * Result of hashing one file.
+	 */
+	public static class HashResult {
+
+		private final File file;
+		private final Map<String, String> checksums;
+		private final long[] chunks;
+		private final long bytes;
+		/**
+		 * False if the checksums came from the fixity cache.
+		 */
+		private boolean read;
+
+		HashResult(File file, Map<String, String> checksums, long[] chunks, long bytes) {
+			this.file = file;
+			this.checksums = checksums;
+			this.chunks = chunks;
+			this.bytes = bytes;
+		}
+
+		/**
+		 * Get algorithm to hex digest.
+		 *
+		 * @return null if the file could not be read
+		 */
+		public Map<String, String> getChecksums() {
+			return checksums;
+		}
+
+		/**
+		 * Get chunk CRCs.
+		 *
+		 * @return null unless chunks were requested
+		 */
+		public long[] getChunks() {
+			return chunks;
+		}
+	}
+}
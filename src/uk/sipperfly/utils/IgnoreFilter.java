@@ -0,0 +1,247 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * The ignore filters of the configuration, compiled once so checking a file needs no
+ * database access and no parsing. The comma separated entries can be
+ * <ul>
+ * <li>a file name, i.e. "Thumbs.db", matched ignoring case</li>
+ * <li>an extension, i.e. "*.tmp"</li>
+ * <li>any other glob on the file name, i.e. "~$*" or "backup-??.zip"</li>
+ * <li>a regular expression on the file name, i.e. "re:^\._.*"</li>
+ * <li>a size rule, i.e. "size&gt;4GB" or "size&lt;1"</li>
+ * <li>an age rule on the modification time, i.e. "age&gt;365d"</li>
+ * </ul>
+ *
+ * @author Nouman Tayyab
+ */
+public class IgnoreFilter {
+
+	private static String GACOM = "com.UKExactly";
+	private static final long DAY = 24L * 60 * 60 * 1000;
+	/**
+	 * Filter that ignores nothing.
+	 */
+	public static final IgnoreFilter NONE = new IgnoreFilter("");
+	private static volatile IgnoreFilter last = NONE;
+	private final String filters;
+	private final Set<String> names = new HashSet<String>();
+	private final Set<String> extensions = new HashSet<String>();
+	private final List<PathMatcher> globs = new ArrayList<PathMatcher>();
+	private final List<Pattern> patterns = new ArrayList<Pattern>();
+	private long minSize = -1;
+	private long maxSize = Long.MAX_VALUE;
+	private long maxAge = Long.MAX_VALUE;
+	private long minAge = -1;
+
+	private IgnoreFilter(String filters) {
+		this.filters = filters;
+		for (String entry : filters.split(",")) {
+			entry = entry.trim();
+			if (!entry.isEmpty()) {
+				this.add(entry);
+			}
+		}
+	}
+
+	/**
+	 * Compile the ignore filters.
+	 *
+	 * @param filters comma separated entries from the configuration, may be null
+	 * @return the filter
+	 */
+	public static IgnoreFilter compile(String filters) {
+		if (filters == null || filters.trim().isEmpty()) {
+			return NONE;
+		}
+		return new IgnoreFilter(filters);
+	}
+
+	/**
+	 * Get the compiled filter, reusing the last one if the filters did not change.
+	 *
+	 * @param filters comma separated entries from the configuration, may be null
+	 * @return the filter
+	 */
+	public static IgnoreFilter of(String filters) {
+		IgnoreFilter filter = last;
+		if (filter.filters.equals(filters == null ? "" : filters)) {
+			return filter;
+		}
+		filter = compile(filters);
+		last = filter;
+		return filter;
+	}
+
+	private void add(String entry) {
+		String lower = entry.toLowerCase(Locale.ROOT);
+		try {
+			if (lower.startsWith("re:")) {
+				this.patterns.add(Pattern.compile(entry.substring(3)));
+			} else if (lower.startsWith("size>")) {
+				this.maxSize = Math.min(this.maxSize, parseSize(entry.substring(5)));
+			} else if (lower.startsWith("size<")) {
+				this.minSize = Math.max(this.minSize, parseSize(entry.substring(5)));
+			} else if (lower.startsWith("age>")) {
+				this.maxAge = Math.min(this.maxAge, parseDays(entry.substring(4)) * DAY);
+			} else if (lower.startsWith("age<")) {
+				this.minAge = Math.max(this.minAge, parseDays(entry.substring(4)) * DAY);
+			} else if (entry.startsWith("*.") && !hasWildcard(entry.substring(2))) {
+				this.extensions.add(entry.substring(1));
+			} else if (hasWildcard(entry)) {
+				this.globs.add(FileSystems.getDefault().getPathMatcher("glob:" + entry));
+			} else {
+				this.names.add(lower);
+				if (entry.startsWith(".")) {
+					// an entry like ".tmp" has always matched the extension as well
+					this.extensions.add(entry);
+				}
+			}
+		} catch (IllegalArgumentException ex) {
+			// bad numbers, regular expressions and globs
+			Logger.getLogger(GACOM).log(Level.WARNING, "Invalid ignore filter: {0}", entry);
+		}
+	}
+
+	private static boolean hasWildcard(String entry) {
+		for (char c : "*?[{".toCharArray()) {
+			if (entry.indexOf(c) >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static long parseSize(String value) {
+		String size = value.trim().toUpperCase(Locale.ROOT);
+		long unit = 1;
+		if (size.endsWith("KB")) {
+			unit = 1024L;
+		} else if (size.endsWith("MB")) {
+			unit = 1024L * 1024;
+		} else if (size.endsWith("GB")) {
+			unit = 1024L * 1024 * 1024;
+		} else if (size.endsWith("TB")) {
+			unit = 1024L * 1024 * 1024 * 1024;
+		}
+		if (unit > 1) {
+			size = size.substring(0, size.length() - 2).trim();
+		} else if (size.endsWith("B")) {
+			size = size.substring(0, size.length() - 1).trim();
+		}
+		return (long) (Double.parseDouble(size) * unit);
+	}
+
+	private static long parseDays(String value) {
+		String days = value.trim().toLowerCase(Locale.ROOT);
+		if (days.endsWith("d")) {
+			days = days.substring(0, days.length() - 1).trim();
+		}
+		return Long.parseLong(days);
+	}
+
+	/**
+	 * Check whether the filter has size or age rules, which need the attributes of the file.
+	 *
+	 * @return
+	 */
+	public boolean needsAttributes() {
+		return this.minSize >= 0 || this.maxSize != Long.MAX_VALUE || this.minAge >= 0 || this.maxAge != Long.MAX_VALUE;
+	}
+
+	/**
+	 * Check a file name against the name, extension, glob and regular expression entries.
+	 *
+	 * @param fileName name of the file including extension
+	 * @return true if the file is ignored
+	 */
+	public boolean ignores(String fileName) {
+		if (this == NONE) {
+			return false;
+		}
+		if (!this.names.isEmpty() && this.names.contains(fileName.toLowerCase(Locale.ROOT))) {
+			return true;
+		}
+		if (!this.extensions.isEmpty()) {
+			int lastIndex = fileName.lastIndexOf('.');
+			if (lastIndex != -1 && this.extensions.contains(fileName.substring(lastIndex))) {
+				return true;
+			}
+		}
+		if (!this.globs.isEmpty()) {
+			Path name = Paths.get(fileName);
+			for (PathMatcher glob : this.globs) {
+				if (glob.matches(name)) {
+					return true;
+				}
+			}
+		}
+		for (Pattern pattern : this.patterns) {
+			if (pattern.matcher(fileName).matches()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check a file against all entries.
+	 *
+	 * @param file  the file
+	 * @param attrs its attributes
+	 * @return true if the file is ignored
+	 */
+	public boolean ignores(Path file, BasicFileAttributes attrs) {
+		if (this.ignores(file.getFileName().toString())) {
+			return true;
+		}
+		return this.needsAttributes() && this.ignores(attrs.size(), attrs.lastModifiedTime().toMillis());
+	}
+
+	/**
+	 * Check a file against all entries.
+	 *
+	 * @param file the file
+	 * @return true if the file is ignored
+	 */
+	public boolean ignores(File file) {
+		if (this.ignores(file.getName())) {
+			return true;
+		}
+		return this.needsAttributes() && this.ignores(file.length(), file.lastModified());
+	}
+
+	private boolean ignores(long size, long modified) {
+		if (size > this.maxSize || size < this.minSize) {
+			return true;
+		}
+		long age = System.currentTimeMillis() - modified;
+		return age > this.maxAge || age < this.minAge;
+	}
+}
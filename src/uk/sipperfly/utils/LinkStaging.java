@@ -0,0 +1,131 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stages files as hard links instead of copies when the source and the drop location
+ * are on the same file system. Only files nobody can write to are linked, as a link
+ * shares its content with the source.
+ *
+ * @author Nouman Tayyab
+ */
+public class LinkStaging {
+
+	private static String GACOM = "com.UKExactly";
+
+	private LinkStaging() {
+	}
+
+	/**
+	 * Check whether staging mode is LINK.
+	 *
+	 * @param stagingMode COPY or LINK
+	 * @return true for LINK
+	 */
+	public static boolean isEnabled(String stagingMode) {
+		return stagingMode != null && stagingMode.trim().equalsIgnoreCase("LINK");
+	}
+
+	/**
+	 * Check whether two paths are on the same FileStore. A path that does not exist yet
+	 * is checked by its closest existing parent.
+	 *
+	 * @param source
+	 * @param target
+	 * @return true if a hard link from one to the other is possible
+	 */
+	public static boolean sameStore(Path source, Path target) {
+		try {
+			FileStore sourceStore = Files.getFileStore(existing(source));
+			FileStore targetStore = Files.getFileStore(existing(target));
+			return sourceStore.equals(targetStore);
+		} catch (IOException ex) {
+			Logger.getLogger(GACOM).log(Level.FINE, "Could not compare file stores", ex);
+			return false;
+		}
+	}
+
+	private static Path existing(Path path) {
+		Path existing = path.toAbsolutePath();
+		while (existing.getParent() != null && !Files.exists(existing)) {
+			existing = existing.getParent();
+		}
+		return existing;
+	}
+
+	/**
+	 * Check whether a file is read only for everybody.
+	 *
+	 * @param file
+	 * @return true if no write permission is set, or the read only flag on Windows
+	 */
+	public static boolean isImmutable(Path file) {
+		try {
+			if (Files.getFileStore(file).supportsFileAttributeView("posix")) {
+				Set<PosixFilePermission> permissions = Files.readAttributes(file, PosixFileAttributes.class).permissions();
+				return !permissions.contains(PosixFilePermission.OWNER_WRITE)
+						&& !permissions.contains(PosixFilePermission.GROUP_WRITE)
+						&& !permissions.contains(PosixFilePermission.OTHERS_WRITE);
+			}
+			if (Files.getFileStore(file).supportsFileAttributeView("dos")) {
+				return Files.readAttributes(file, DosFileAttributes.class).isReadOnly();
+			}
+		} catch (IOException | UnsupportedOperationException ex) {
+			Logger.getLogger(GACOM).log(Level.FINE, "Could not read permissions of " + file, ex);
+		}
+		return false;
+	}
+
+	/**
+	 * Create a hard link.
+	 *
+	 * @param source existing file
+	 * @param target the link to create, it must not exist
+	 * @return true if the link was created, false to copy the file instead
+	 */
+	public static boolean link(Path source, Path target) {
+		try {
+			Files.createLink(target, source);
+			return true;
+		} catch (IOException | UnsupportedOperationException | SecurityException ex) {
+			Logger.getLogger(GACOM).log(Level.FINE, "Could not link " + source + ", copying it", ex);
+			return false;
+		}
+	}
+
+	/**
+	 * Check that a staged file is still a link to its source, by file key (inode) where the platform has one.
+	 *
+	 * @param source
+	 * @param staged
+	 * @return true if both paths are the same file
+	 */
+	public static boolean isSameFile(Path source, Path staged) {
+		try {
+			return Files.isSameFile(source, staged);
+		} catch (IOException ex) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Turns a staged folder into a bag from checksums that were already taken, so that
+ * bagging costs one stat per file instead of another read of the whole payload.
+ * The layout matches BagCreator.bagInPlace: everything below the bag root is moved
+ * into the data folder.
+ *
+ * @author Nouman Tayyab
+ */
+public class ManifestBagWriter {
+
+	private static String GACOM = "com.UKExactly";
+	public static final String BAGIT_VERSION = "0.97";
+	public static final String CHUNK_MANIFEST = "chunkmanifest-crc32.txt";
+	private static final String LINE = System.lineSeparator();
+
+	private final PayloadManifest manifest;
+	private final List<Map.Entry<String, String>> metadata = new ArrayList<Map.Entry<String, String>>();
+	private long payloadBytes;
+	private int payloadFiles;
+
+	/**
+	 * Constructor for ManifestBagWriter
+	 *
+	 * @param manifest checksums of every staged file keyed relative to the staging data folder
+	 */
+	public ManifestBagWriter(PayloadManifest manifest) {
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Add a bag-info.txt element after Bagging-Date and Payload-Oxum.
+	 *
+	 * @param label element name
+	 * @param value element value, already folded
+	 */
+	public void addMetadata(String label, String value) {
+		this.metadata.add(new AbstractMap.SimpleImmutableEntry<String, String>(label, value));
+	}
+
+	/**
+	 * Get Payload-Oxum of the written bag.
+	 *
+	 * @return "bytes.files"
+	 */
+	public String getPayloadOxum() {
+		return this.payloadBytes + "." + this.payloadFiles;
+	}
+
+	/**
+	 * Check whether the manifest describes exactly the staged data folder.
+	 * Only names and sizes are compared, the content was verified when the copy was checked.
+	 *
+	 * @param root bag root holding only the staging data folder
+	 * @return true if every staged file has all digests and nothing else is staged
+	 */
+	public boolean covers(Path root) {
+		File[] children = root.toFile().listFiles();
+		File staged = root.resolve("data").toFile();
+		if (children == null || children.length != 1 || !staged.isDirectory()) {
+			return false;
+		}
+		List<File> files = new ArrayList<File>();
+		CommonUtil.listFiles(staged, files);
+		if (files.size() != this.manifest.size()) {
+			return false;
+		}
+		long bytes = 0;
+		for (File file : files) {
+			String key = CommonUtil.relativeKey(staged.toPath(), file.toPath());
+			PayloadManifest.Entry entry = this.manifest.get(key);
+			if (entry == null || entry.getSize() != file.length() || key.indexOf('\n') >= 0 || key.indexOf('\r') >= 0) {
+				Logger.getLogger(GACOM).log(Level.INFO, "{0} is not in the copy manifest, hashing the bag from disk", key);
+				return false;
+			}
+			for (String algorithm : this.manifest.getAlgorithms()) {
+				if (entry.getDigest(algorithm) == null) {
+					return false;
+				}
+			}
+			bytes += entry.getSize();
+		}
+		this.payloadBytes = bytes;
+		this.payloadFiles = files.size();
+		return true;
+	}
+
+	/**
+	 * Move the staging data folder into the payload directory and write the tag files.
+	 * {@link #covers(Path)} must have returned true for the same root.
+	 *
+	 * @param root bag root
+	 * @throws IOException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public void write(Path root) throws IOException, NoSuchAlgorithmException {
+		Path temp = Files.createTempDirectory(root, ".payload");
+		Files.move(root.resolve("data"), temp.resolve("data"), StandardCopyOption.ATOMIC_MOVE);
+		Files.move(temp, root.resolve("data"), StandardCopyOption.ATOMIC_MOVE);
+		String prefix = "data/data/";
+
+		List<String> tagFiles = new ArrayList<String>();
+		this.writeBagit(root.resolve("bagit.txt"));
+		tagFiles.add("bagit.txt");
+		this.writeBagInfo(root.resolve("bag-info.txt"));
+		tagFiles.add("bag-info.txt");
+
+		List<String> paths = new ArrayList<String>();
+		for (PayloadManifest.Entry entry : this.manifest.getEntries()) {
+			paths.add(entry.getPath());
+		}
+		Collections.sort(paths);
+		for (String algorithm : this.manifest.getAlgorithms()) {
+			String name = "manifest-" + fileAlgorithm(algorithm) + ".txt";
+			try (BufferedWriter writer = Files.newBufferedWriter(root.resolve(name), StandardCharsets.UTF_8)) {
+				for (String path : paths) {
+					writer.write(this.manifest.get(path).getDigest(algorithm) + "  " + prefix + path + LINE);
+				}
+			}
+			tagFiles.add(name);
+		}
+		if (this.manifest.getChunkSize() > 0) {
+			this.manifest.writeChunkManifest(root.resolve(CHUNK_MANIFEST).toFile(), prefix);
+			tagFiles.add(CHUNK_MANIFEST);
+		}
+
+		List<String> algorithms = this.manifest.getAlgorithms();
+		List<Map<String, String>> tagDigests = new ArrayList<Map<String, String>>();
+		for (String tagFile : tagFiles) {
+			tagDigests.add(HashingEngine.checkSums(root.resolve(tagFile).toFile(), algorithms));
+		}
+		for (String algorithm : algorithms) {
+			try (BufferedWriter writer = Files.newBufferedWriter(root.resolve("tagmanifest-" + fileAlgorithm(algorithm) + ".txt"), StandardCharsets.UTF_8)) {
+				for (int i = 0; i < tagFiles.size(); i++) {
+					writer.write(tagDigests.get(i).get(algorithm) + "  " + tagFiles.get(i) + LINE);
+				}
+			}
+		}
+		Logger.getLogger(GACOM).log(Level.INFO, "Bag written from {0} precomputed checksums", this.payloadFiles);
+	}
+
+	private void writeBagit(Path file) throws IOException {
+		String text = "BagIt-Version: " + BAGIT_VERSION + LINE
+				+ "Tag-File-Character-Encoding: UTF-8" + LINE;
+		Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void writeBagInfo(Path file) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			writer.write("Bagging-Date: " + new SimpleDateFormat("yyyy-MM-dd", Locale.ROOT).format(new Date()) + LINE);
+			writer.write("Payload-Oxum: " + this.getPayloadOxum() + LINE);
+			for (Map.Entry<String, String> element : this.metadata) {
+				writer.write(element.getKey() + ": " + element.getValue() + LINE);
+			}
+		}
+	}
+
+	/**
+	 * Name of an algorithm as used in manifest file names.
+	 *
+	 * @param algorithm MessageDigest algorithm name, i.e. "SHA-256"
+	 * @return i.e. "sha256"
+	 */
+	public static String fileAlgorithm(String algorithm) {
+		return algorithm.replace("-", "").toLowerCase(Locale.ROOT);
+	}
+}
@@ -0,0 +1,609 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compares two manifests, or a manifest and a scan of a directory, and reports the files
+ * that were added, removed, modified or moved. Both sides are sorted on disk and merged,
+ * so memory use does not depend on the size of the manifests. To find what a re-sent
+ * collection changed since its last bag:
+ *
+ * java -cp Exactly.jar uk.sipperfly.utils.ManifestDiff old-bag new-bag|source-folder|manifest [report]
+ *
+ * A source folder is scanned under data/ and its own name, the way a transfer stages it.
+ *
+ * @author Nouman Tayyab
+ */
+public class ManifestDiff implements Closeable {
+
+	private static String GACOM = "com.UKExactly";
+	/**
+	 * Lines sorted in memory before a run is written to disk.
+	 */
+	private static final int RUN_LINES = 100000;
+	/**
+	 * Runs merged at once.
+	 */
+	private static final int MAX_FAN_IN = 64;
+	/**
+	 * Files hashed per batch of a directory scan.
+	 */
+	private static final int SCAN_BATCH = 1000;
+	private static final Comparator<Line> BY_PATH = new Comparator<Line>() {
+		@Override
+		public int compare(Line a, Line b) {
+			return a.path.compareTo(b.path);
+		}
+	};
+	private static final Comparator<Line> BY_DIGEST = new Comparator<Line>() {
+		@Override
+		public int compare(Line a, Line b) {
+			int result = a.digest.compareTo(b.digest);
+			return result != 0 ? result : a.path.compareTo(b.path);
+		}
+	};
+	private final File workDir;
+	private int tempFiles;
+
+	/**
+	 * Receives every difference as soon as it is found.
+	 */
+	public interface Listener {
+
+		/**
+		 * A file only in the new side.
+		 *
+		 * @param path
+		 * @param digest
+		 */
+		void added(String path, String digest);
+
+		/**
+		 * A file only in the old side.
+		 *
+		 * @param path
+		 * @param digest
+		 */
+		void removed(String path, String digest);
+
+		/**
+		 * A file on both sides with different content.
+		 *
+		 * @param path
+		 * @param oldDigest
+		 * @param newDigest
+		 */
+		void modified(String path, String oldDigest, String newDigest);
+
+		/**
+		 * The same content under a new path.
+		 *
+		 * @param oldPath
+		 * @param newPath
+		 * @param digest
+		 */
+		void moved(String oldPath, String newPath, String digest);
+	}
+
+	/**
+	 * Compare an earlier bag with a later bag, a manifest or a source folder and write the differences.
+	 * Exits with 1 if anything changed.
+	 *
+	 * @param args earlier bag folder or manifest, later bag folder, manifest or source folder, report file
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2) {
+			System.out.println("Usage: ManifestDiff old-bag|manifest new-bag|source-folder|manifest [report]");
+			return;
+		}
+		File oldManifest = manifestOf(new File(args[0]), null);
+		String algorithm = algorithmOf(oldManifest);
+		File report = new File(args.length > 2 ? args[2] : "manifest-diff.txt");
+		File target = new File(args[1]);
+		boolean changed;
+		try (ManifestDiff diff = new ManifestDiff(null); Report listener = new Report(report)) {
+			File newManifest;
+			if (target.isDirectory() && !new File(target, "bagit.txt").isFile()) {
+				HashingEngine engine = new HashingEngine(0);
+				try {
+					newManifest = diff.scan(target, "data/" + target.getName() + "/", algorithm, engine);
+				} finally {
+					engine.shutdown();
+				}
+			} else {
+				newManifest = manifestOf(target, oldManifest.getName());
+			}
+			diff.diff(oldManifest, newManifest, listener);
+			System.out.println(listener.summary() + ", see " + report.getAbsolutePath());
+			changed = !listener.isUnchanged();
+		}
+		if (changed) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Get the manifest of a bag, the strongest one or the one with the given name.
+	 */
+	private static File manifestOf(File bag, String name) throws IOException {
+		if (!bag.isDirectory()) {
+			return bag;
+		}
+		if (name != null) {
+			File manifest = new File(bag, name);
+			if (!manifest.isFile()) {
+				throw new IOException(bag + " has no " + name);
+			}
+			return manifest;
+		}
+		for (String algorithm : new String[]{"sha512", "sha256", "sha1", "md5"}) {
+			File manifest = new File(bag, "manifest-" + algorithm + ".txt");
+			if (manifest.isFile()) {
+				return manifest;
+			}
+		}
+		throw new IOException(bag + " has no payload manifest");
+	}
+
+	/**
+	 * MessageDigest name of a manifest file, i.e. "manifest-sha256.txt" gives "SHA-256".
+	 */
+	private static String algorithmOf(File manifest) throws IOException {
+		String name = manifest.getName().toUpperCase(Locale.ROOT);
+		if (!name.startsWith("MANIFEST-") || !name.endsWith(".TXT")) {
+			throw new IOException("Not a payload manifest: " + manifest);
+		}
+		name = name.substring("MANIFEST-".length(), name.length() - ".TXT".length());
+		if (name.startsWith("SHA") && name.length() > 3 && name.charAt(3) != '-') {
+			return "SHA-" + name.substring(3);
+		}
+		return name;
+	}
+
+	/**
+	 * Constructor for ManifestDiff
+	 *
+	 * @param workDir directory for the sorted runs, null for the default temp directory
+	 * @throws IOException if the work directory cannot be created
+	 */
+	public ManifestDiff(File workDir) throws IOException {
+		Path parent = workDir == null ? null : workDir.toPath();
+		this.workDir = (parent == null ? Files.createTempDirectory("exactly-diff") : Files.createTempDirectory(parent, "exactly-diff")).toFile();
+	}
+
+	/**
+	 * Write a manifest of every file below a directory, hashed in batches so only one batch is held in memory.
+	 *
+	 * @param directory directory to scan
+	 * @param prefix    prefix of every path, i.e. "data/" to compare with the manifest of a bag
+	 * @param algorithm MessageDigest algorithm name, the one of the manifest it is compared with
+	 * @param engine    hashing engine
+	 * @return the manifest, it is deleted by close
+	 * @throws IOException          if the directory cannot be read
+	 * @throws InterruptedException if the calling thread is interrupted
+	 */
+	public File scan(final File directory, final String prefix, final String algorithm, final HashingEngine engine) throws IOException, InterruptedException {
+		File manifest = this.newTempFile();
+		try (final BufferedWriter writer = Files.newBufferedWriter(manifest.toPath(), StandardCharsets.UTF_8)) {
+			final List<File> batch = new ArrayList<File>();
+			final InterruptedException[] interrupted = new InterruptedException[1];
+			Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					if (attrs.isRegularFile()) {
+						batch.add(file.toFile());
+					}
+					if (batch.size() >= SCAN_BATCH) {
+						try {
+							writeBatch(batch, directory, prefix, algorithm, engine, writer);
+						} catch (InterruptedException ex) {
+							interrupted[0] = ex;
+							return FileVisitResult.TERMINATE;
+						}
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+			if (interrupted[0] != null) {
+				throw interrupted[0];
+			}
+			writeBatch(batch, directory, prefix, algorithm, engine, writer);
+		}
+		return manifest;
+	}
+
+	private static void writeBatch(List<File> batch, File directory, String prefix, String algorithm, HashingEngine engine, BufferedWriter writer) throws IOException, InterruptedException {
+		Map<File, String> digests = engine.hashFiles(batch, algorithm, null);
+		for (File file : batch) {
+			String digest = digests.get(file);
+			if (digest == null) {
+				Logger.getLogger(GACOM).log(Level.WARNING, "Could not hash {0}, left out of the diff", file);
+				continue;
+			}
+			writer.write(digest + "  " + prefix + CommonUtil.relativeKey(directory.toPath(), file.toPath()));
+			writer.newLine();
+		}
+		batch.clear();
+	}
+
+	/**
+	 * Compare two manifests of the same algorithm. A file that was removed and a file that was added
+	 * with the same digest are reported as one move.
+	 *
+	 * @param oldManifest manifest-*.txt of the earlier bag
+	 * @param newManifest manifest-*.txt of the new bag or the result of scan
+	 * @param listener    receives the differences, in path order for each kind
+	 * @throws IOException if a manifest cannot be read
+	 */
+	public void diff(File oldManifest, File newManifest, Listener listener) throws IOException {
+		File oldSorted = this.sort(oldManifest, BY_PATH);
+		File newSorted = this.sort(newManifest, BY_PATH);
+		File removed = this.newTempFile();
+		File added = this.newTempFile();
+		try (LineReader before = new LineReader(oldSorted);
+				LineReader after = new LineReader(newSorted);
+				BufferedWriter removedWriter = Files.newBufferedWriter(removed.toPath(), StandardCharsets.UTF_8);
+				BufferedWriter addedWriter = Files.newBufferedWriter(added.toPath(), StandardCharsets.UTF_8)) {
+			Line a = before.next();
+			Line b = after.next();
+			while (a != null || b != null) {
+				int order = a == null ? 1 : b == null ? -1 : a.path.compareTo(b.path);
+				if (order == 0) {
+					if (!a.digest.equals(b.digest)) {
+						listener.modified(a.path, a.digest, b.digest);
+					}
+					a = before.next();
+					b = after.next();
+				} else if (order < 0) {
+					a.write(removedWriter);
+					a = before.next();
+				} else {
+					b.write(addedWriter);
+					b = after.next();
+				}
+			}
+		}
+		delete(oldSorted);
+		delete(newSorted);
+		this.matchMoves(removed, added, listener);
+	}
+
+	/**
+	 * Pair the removed and added files by digest, both sorted by digest on disk.
+	 */
+	private void matchMoves(File removed, File added, Listener listener) throws IOException {
+		File removedSorted = this.sort(removed, BY_DIGEST);
+		File addedSorted = this.sort(added, BY_DIGEST);
+		delete(removed);
+		delete(added);
+		File removedLeft = this.newTempFile();
+		File addedLeft = this.newTempFile();
+		try (LineReader before = new LineReader(removedSorted);
+				LineReader after = new LineReader(addedSorted);
+				BufferedWriter removedWriter = Files.newBufferedWriter(removedLeft.toPath(), StandardCharsets.UTF_8);
+				BufferedWriter addedWriter = Files.newBufferedWriter(addedLeft.toPath(), StandardCharsets.UTF_8)) {
+			Line a = before.next();
+			Line b = after.next();
+			while (a != null || b != null) {
+				int order = a == null ? 1 : b == null ? -1 : a.digest.compareTo(b.digest);
+				if (order == 0) {
+					listener.moved(a.path, b.path, a.digest);
+					a = before.next();
+					b = after.next();
+				} else if (order < 0) {
+					a.write(removedWriter);
+					a = before.next();
+				} else {
+					b.write(addedWriter);
+					b = after.next();
+				}
+			}
+		}
+		delete(removedSorted);
+		delete(addedSorted);
+		// report what is left in path order
+		File removedByPath = this.sort(removedLeft, BY_PATH);
+		File addedByPath = this.sort(addedLeft, BY_PATH);
+		delete(removedLeft);
+		delete(addedLeft);
+		try (LineReader reader = new LineReader(removedByPath)) {
+			Line line;
+			while ((line = reader.next()) != null) {
+				listener.removed(line.path, line.digest);
+			}
+		}
+		try (LineReader reader = new LineReader(addedByPath)) {
+			Line line;
+			while ((line = reader.next()) != null) {
+				listener.added(line.path, line.digest);
+			}
+		}
+		delete(removedByPath);
+		delete(addedByPath);
+	}
+
+	/**
+	 * Delete the work directory and everything in it.
+	 */
+	@Override
+	public void close() {
+		File[] files = this.workDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				delete(file);
+			}
+		}
+		delete(this.workDir);
+	}
+
+	/**
+	 * Sort a manifest into a new file, in runs of RUN_LINES that are merged MAX_FAN_IN at a time.
+	 */
+	private File sort(File manifest, Comparator<Line> order) throws IOException {
+		List<File> runs = new ArrayList<File>();
+		try (LineReader reader = new LineReader(manifest)) {
+			List<Line> lines = new ArrayList<Line>();
+			Line line;
+			while ((line = reader.next()) != null) {
+				lines.add(line);
+				if (lines.size() >= RUN_LINES) {
+					runs.add(this.writeRun(lines, order));
+				}
+			}
+			if (!lines.isEmpty() || runs.isEmpty()) {
+				runs.add(this.writeRun(lines, order));
+			}
+		}
+		while (runs.size() > 1) {
+			List<File> merged = new ArrayList<File>();
+			for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+				merged.add(this.merge(runs.subList(i, Math.min(runs.size(), i + MAX_FAN_IN)), order));
+			}
+			runs = merged;
+		}
+		return runs.get(0);
+	}
+
+	private File writeRun(List<Line> lines, Comparator<Line> order) throws IOException {
+		Collections.sort(lines, order);
+		File run = this.newTempFile();
+		try (BufferedWriter writer = Files.newBufferedWriter(run.toPath(), StandardCharsets.UTF_8)) {
+			for (Line line : lines) {
+				line.write(writer);
+			}
+		}
+		lines.clear();
+		return run;
+	}
+
+	private File merge(List<File> runs, final Comparator<Line> order) throws IOException {
+		if (runs.size() == 1) {
+			return runs.get(0);
+		}
+		File out = this.newTempFile();
+		List<LineReader> readers = new ArrayList<LineReader>();
+		try (BufferedWriter writer = Files.newBufferedWriter(out.toPath(), StandardCharsets.UTF_8)) {
+			PriorityQueue<LineReader> heads = new PriorityQueue<LineReader>(runs.size(), new Comparator<LineReader>() {
+				@Override
+				public int compare(LineReader a, LineReader b) {
+					return order.compare(a.head, b.head);
+				}
+			});
+			for (File run : runs) {
+				LineReader reader = new LineReader(run);
+				readers.add(reader);
+				if (reader.advance()) {
+					heads.add(reader);
+				}
+			}
+			LineReader reader;
+			while ((reader = heads.poll()) != null) {
+				reader.head.write(writer);
+				if (reader.advance()) {
+					heads.add(reader);
+				}
+			}
+		} finally {
+			for (LineReader reader : readers) {
+				reader.close();
+			}
+		}
+		for (File run : runs) {
+			delete(run);
+		}
+		return out;
+	}
+
+	private File newTempFile() {
+		return new File(this.workDir, "run-" + (this.tempFiles++) + ".txt");
+	}
+
+	private static void delete(File file) {
+		if (file.exists() && !file.delete()) {
+			Logger.getLogger(GACOM).log(Level.WARNING, "Could not delete {0}", file);
+		}
+	}
+
+	/**
+	 * Counts the differences and writes them to a report, one per line.
+	 */
+	public static class Report implements Listener, Closeable {
+
+		private final BufferedWriter writer;
+		private long added;
+		private long removed;
+		private long modified;
+		private long moved;
+
+		/**
+		 * Constructor for Report
+		 *
+		 * @param file report to write
+		 * @throws IOException if it cannot be created
+		 */
+		public Report(File file) throws IOException {
+			this.writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public void added(String path, String digest) {
+			this.added++;
+			this.line("ADDED  " + path);
+		}
+
+		@Override
+		public void removed(String path, String digest) {
+			this.removed++;
+			this.line("REMOVED  " + path);
+		}
+
+		@Override
+		public void modified(String path, String oldDigest, String newDigest) {
+			this.modified++;
+			this.line("MODIFIED  " + path);
+		}
+
+		@Override
+		public void moved(String oldPath, String newPath, String digest) {
+			this.moved++;
+			this.line("MOVED  " + oldPath + " -> " + newPath);
+		}
+
+		private void line(String line) {
+			try {
+				this.writer.write(line);
+				this.writer.newLine();
+			} catch (IOException ex) {
+				Logger.getLogger(GACOM).log(Level.SEVERE, "Could not write diff report", ex);
+			}
+		}
+
+		/**
+		 * Summary for the job report.
+		 *
+		 * @return
+		 */
+		public String summary() {
+			return String.format("%d added, %d removed, %d modified, %d moved", this.added, this.removed, this.modified, this.moved);
+		}
+
+		/**
+		 * Check whether anything changed.
+		 *
+		 * @return true if both sides hold the same files under the same paths
+		 */
+		public boolean isUnchanged() {
+			return this.added == 0 && this.removed == 0 && this.modified == 0 && this.moved == 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.writer.close();
+		}
+	}
+
+	/**
+	 * One manifest line, "digest  path".
+	 */
+	private static class Line {
+
+		private final String digest;
+		private final String path;
+
+		Line(String digest, String path) {
+			this.digest = digest;
+			this.path = path;
+		}
+
+		static Line parse(String text) {
+			text = text.trim();
+			int space = 0;
+			while (space < text.length() && !Character.isWhitespace(text.charAt(space))) {
+				space++;
+			}
+			if (space == 0 || space == text.length()) {
+				return null;
+			}
+			String path = text.substring(space).trim();
+			if (path.startsWith("*")) {
+				// binary mode marker of md5sum style manifests
+				path = path.substring(1);
+			}
+			return new Line(text.substring(0, space).toLowerCase(), path);
+		}
+
+		void write(BufferedWriter writer) throws IOException {
+			writer.write(this.digest);
+			writer.write("  ");
+			writer.write(this.path);
+			writer.newLine();
+		}
+	}
+
+	/**
+	 * Reads the lines of a manifest or run, skipping lines that are not "digest  path".
+	 */
+	private static class LineReader implements Closeable {
+
+		private final BufferedReader reader;
+		private Line head;
+
+		LineReader(File file) throws IOException {
+			this.reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+		}
+
+		Line next() throws IOException {
+			String text;
+			while ((text = this.reader.readLine()) != null) {
+				Line line = Line.parse(text);
+				if (line != null) {
+					return line;
+				}
+			}
+			return null;
+		}
+
+		boolean advance() throws IOException {
+			this.head = this.next();
+			return this.head != null;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.reader.close();
+		}
+	}
+}
@@ -0,0 +1,393 @@
+/*
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checksums of a set of payload files keyed by their path relative to the staging data folder.
+ * A directory source named "photos" contributes keys like "photos/2016/img_001.tif",
+ * which is the same key the staged copy gets below the data folder.
+ *
+ * @author Nouman Tayyab
+ */
+public class PayloadManifest {
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final List<String> algorithms;
+	private final long chunkSize;
+
+	/**
+	 * Constructor for PayloadManifest
+	 *
+	 * @param algorithms MessageDigest algorithm names every file is hashed with
+	 */
+	public PayloadManifest(List<String> algorithms) {
+		this(algorithms, 0);
+	}
+
+	/**
+	 * Constructor for PayloadManifest
+	 *
+	 * @param algorithms MessageDigest algorithm names every file is hashed with
+	 * @param chunkSize  chunk size in bytes for the chunk CRCs, 0 for none
+	 */
+	public PayloadManifest(List<String> algorithms, long chunkSize) {
+		this.algorithms = Collections.unmodifiableList(new ArrayList<String>(algorithms));
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Get the chunk size.
+	 *
+	 * @return chunk size in bytes, 0 if files are not chunked
+	 */
+	public long getChunkSize() {
+		return this.chunkSize;
+	}
+
+	/**
+	 * Get the algorithms every file is hashed with.
+	 *
+	 * @return MessageDigest algorithm names
+	 */
+	public List<String> getAlgorithms() {
+		return this.algorithms;
+	}
+
+	/**
+	 * Add or replace the checksums of a file.
+	 *
+	 * @param path    path relative to the staging data folder, '/' separated
+	 * @param size    file size in bytes
+	 * @param digests algorithm to hex digest, null if the file could not be read
+	 */
+	public void put(String path, long size, Map<String, String> digests) {
+		this.put(path, size, digests, null);
+	}
+
+	/**
+	 * Add or replace the checksums and chunk CRCs of a file.
+	 *
+	 * @param path    path relative to the staging data folder, '/' separated
+	 * @param size    file size in bytes
+	 * @param digests algorithm to hex digest, null if the file could not be read
+	 * @param chunks  CRC32 of every chunk, may be null
+	 */
+	public void put(String path, long size, Map<String, String> digests, long[] chunks) {
+		this.entries.put(path, new Entry(path, size, digests, chunks));
+	}
+
+	/**
+	 * Get the entry for a path.
+	 *
+	 * @param path relative path
+	 * @return the entry or null
+	 */
+	public Entry get(String path) {
+		return this.entries.get(path);
+	}
+
+	/**
+	 * Get all entries.
+	 *
+	 * @return entries in no particular order
+	 */
+	public Collection<Entry> getEntries() {
+		return Collections.unmodifiableCollection(this.entries.values());
+	}
+
+	/**
+	 * Number of files in the manifest.
+	 *
+	 * @return file count
+	 */
+	public int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Add the checksums of a single file, hashed on the calling thread.
+	 *
+	 * @param file   file to hash
+	 * @param key    path relative to the staging data folder
+	 * @param engine hashing engine
+	 */
+	public void addFile(File file, String key, HashingEngine engine) {
+		HashingEngine.HashResult result = engine.hashFile(file, this.algorithms, this.chunkSize);
+		this.put(key, file.length(), result.getChecksums(), result.getChunks());
+	}
+
+	/**
+	 * Add the checksums of every file below a directory.
+	 *
+	 * @param directory directory to hash
+	 * @param prefix    key prefix for files in the directory, i.e. "photos/", or "" for the staging data folder itself
+	 * @param engine    hashing engine
+	 * @param listener  per file progress, may be null
+	 * @throws InterruptedException
+	 */
+	public void addDirectory(File directory, String prefix, HashingEngine engine, HashingEngine.HashListener listener) throws InterruptedException {
+		this.addDirectory(directory, prefix, engine, listener, IgnoreFilter.NONE);
+	}
+
+	/**
+	 * Add the checksums of every file below a directory that is not ignored.
+	 *
+	 * @param directory directory to hash
+	 * @param prefix    key prefix for files in the directory, i.e. "photos/", or "" for the staging data folder itself
+	 * @param engine    hashing engine
+	 * @param listener  per file progress, may be null
+	 * @param filter    files the copy leaves out
+	 * @throws InterruptedException
+	 */
+	public void addDirectory(File directory, String prefix, HashingEngine engine, HashingEngine.HashListener listener, IgnoreFilter filter) throws InterruptedException {
+		this.addDirectory(directory, prefix, engine, listener, filter, null);
+	}
+
+	/**
+	 * Add the checksums of every file below a directory that is not ignored,
+	 * taking the entries already known from another manifest instead of hashing them.
+	 *
+	 * @param directory directory to hash
+	 * @param prefix    key prefix for files in the directory, i.e. "photos/", or "" for the staging data folder itself
+	 * @param engine    hashing engine
+	 * @param listener  per file progress, may be null
+	 * @param filter    files the copy leaves out
+	 * @param known     entries that need no hashing, may be null
+	 * @throws InterruptedException
+	 */
+	public void addDirectory(File directory, String prefix, HashingEngine engine, HashingEngine.HashListener listener, IgnoreFilter filter, PayloadManifest known) throws InterruptedException {
+		List<File> files = new ArrayList<File>();
+		CommonUtil.listFiles(directory, files, filter);
+		List<File> unknown = new ArrayList<File>();
+		for (File file : files) {
+			Entry entry = known == null ? null : known.get(prefix + CommonUtil.relativeKey(directory.toPath(), file.toPath()));
+			if (entry == null) {
+				unknown.add(file);
+			} else {
+				this.put(entry.getPath(), entry.getSize(), entry.getDigests(), entry.getChunks());
+			}
+		}
+		Map<File, HashingEngine.HashResult> results = engine.hashFiles(unknown, this.algorithms, this.chunkSize, listener);
+		for (File file : unknown) {
+			String key = prefix + CommonUtil.relativeKey(directory.toPath(), file.toPath());
+			HashingEngine.HashResult result = results.get(file);
+			if (result == null) {
+				this.put(key, file.length(), null);
+			} else {
+				this.put(key, file.length(), result.getChecksums(), result.getChunks());
+			}
+		}
+	}
+
+	/**
+	 * Write the chunk CRCs as a tag file. The first line holds the chunk size,
+	 * every other line one chunk as "crc32 offset path".
+	 *
+	 * @param tagFile    file to write
+	 * @param pathPrefix prefix of every path relative to the bag root, i.e. "data/"
+	 * @throws IOException
+	 */
+	public void writeChunkManifest(File tagFile, String pathPrefix) throws IOException {
+		List<String> paths = new ArrayList<String>(this.entries.keySet());
+		Collections.sort(paths);
+		try (BufferedWriter writer = Files.newBufferedWriter(tagFile.toPath(), StandardCharsets.UTF_8)) {
+			writer.write("Chunk-Size: " + this.chunkSize);
+			writer.newLine();
+			for (String path : paths) {
+				long[] chunks = this.entries.get(path).getChunks();
+				if (chunks == null) {
+					continue;
+				}
+				for (int i = 0; i < chunks.length; i++) {
+					writer.write(ChunkDigest.toHex(chunks[i]) + " " + (i * this.chunkSize) + "  " + pathPrefix + path);
+					writer.newLine();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compare this manifest, the expected state, with the actual state in one pass over each side.
+	 *
+	 * @param actual manifest of the copy
+	 * @return missing, extra and corrupt paths
+	 */
+	public Comparison compare(PayloadManifest actual) {
+		Comparison comparison = new Comparison();
+		for (Entry expected : this.entries.values()) {
+			Entry found = actual.get(expected.getPath());
+			if (found == null) {
+				comparison.missing.add(expected.getPath());
+			} else if (expected.getSize() != found.getSize()
+					|| !expected.matches(found)) {
+				comparison.corrupt.add(expected.getPath());
+			}
+		}
+		for (Entry found : actual.entries.values()) {
+			if (!this.entries.containsKey(found.getPath())) {
+				comparison.extra.add(found.getPath());
+			}
+		}
+		Collections.sort(comparison.missing);
+		Collections.sort(comparison.extra);
+		Collections.sort(comparison.corrupt);
+		return comparison;
+	}
+
+	/**
+	 * Checksum of one file.
+	 */
+	public static class Entry {
+
+		private final String path;
+		private final long size;
+		private final Map<String, String> digests;
+		private final long[] chunks;
+
+		Entry(String path, long size, Map<String, String> digests, long[] chunks) {
+			this.path = path;
+			this.size = size;
+			this.chunks = chunks;
+			if (digests == null) {
+				this.digests = Collections.emptyMap();
+			} else {
+				this.digests = digests;
+			}
+		}
+
+		/**
+		 * Get path relative to the staging data folder.
+		 *
+		 * @return
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * Get size in bytes.
+		 *
+		 * @return
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Get hex digest for an algorithm.
+		 *
+		 * @param algorithm MessageDigest algorithm name
+		 * @return hex digest or null
+		 */
+		public String getDigest(String algorithm) {
+			return digests.get(algorithm);
+		}
+
+		/**
+		 * Get CRC32 of every chunk.
+		 *
+		 * @return chunk CRCs or null
+		 */
+		public long[] getChunks() {
+			return chunks;
+		}
+
+		/**
+		 * Get all hex digests.
+		 *
+		 * @return algorithm to hex digest
+		 */
+		public Map<String, String> getDigests() {
+			return digests;
+		}
+
+		/**
+		 * Check the digests both entries have in common.
+		 *
+		 * @param other entry for the same path
+		 * @return true if there is at least one common algorithm and all common digests match
+		 */
+		public boolean matches(Entry other) {
+			boolean compared = false;
+			for (Map.Entry<String, String> digest : this.digests.entrySet()) {
+				String otherDigest = other.getDigest(digest.getKey());
+				if (otherDigest == null) {
+					continue;
+				}
+				if (digest.getValue() == null || !digest.getValue().equalsIgnoreCase(otherDigest)) {
+					return false;
+				}
+				compared = true;
+			}
+			return compared;
+		}
+	}
+
+	/**
+	 * Result of comparing two manifests.
+	 */
+	public static class Comparison {
+
+		private final List<String> missing = new ArrayList<String>();
+		private final List<String> extra = new ArrayList<String>();
+		private final List<String> corrupt = new ArrayList<String>();
+
+		/**
+		 * Paths in the expected manifest that were not found.
+		 *
+		 * @return sorted paths
+		 */
+		public List<String> getMissing() {
+			return missing;
+		}
+
+		/**
+		 * Paths found that are not in the expected manifest.
+		 *
+		 * @return sorted paths
+		 */
+		public List<String> getExtra() {
+			return extra;
+		}
+
+		/**
+		 * Paths found with a different size or checksum.
+		 *
+		 * @return sorted paths
+		 */
+		public List<String> getCorrupt() {
+			return corrupt;
+		}
+
+		/**
+		 * Check whether both manifests describe the same files.
+		 *
+		 * @return true if nothing is missing, extra or corrupt
+		 */
+		public boolean isMatch() {
+			return missing.isEmpty() && extra.isEmpty() && corrupt.isEmpty();
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting how many bytes per second a background reader may consume.
+ * Up to one second of reads can be taken as a burst, a larger request waits until it is paid off.
+ *
+ * @author Nouman Tayyab
+ */
+public class RateLimiter {
+
+	private final long bytesPerSecond;
+	private double tokens;
+	private long last;
+
+	/**
+	 * Constructor for RateLimiter
+	 *
+	 * @param bytesPerSecond sustained rate, 0 or less for no limit
+	 */
+	public RateLimiter(long bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+		this.tokens = bytesPerSecond;
+		this.last = System.nanoTime();
+	}
+
+	/**
+	 * Take bytes from the bucket, sleeping while the bucket is in debt.
+	 *
+	 * @param bytes bytes about to be read
+	 * @throws InterruptedException
+	 */
+	public synchronized void acquire(long bytes) throws InterruptedException {
+		if (this.bytesPerSecond <= 0) {
+			return;
+		}
+		this.refill();
+		this.tokens -= bytes;
+		if (this.tokens < 0) {
+			TimeUnit.NANOSECONDS.sleep((long) (-this.tokens * 1e9 / this.bytesPerSecond));
+			this.refill();
+		}
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		this.tokens = Math.min(this.bytesPerSecond, this.tokens + (now - this.last) * (double) this.bytesPerSecond / 1e9);
+		this.last = now;
+	}
+}
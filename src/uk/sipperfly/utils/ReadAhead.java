@@ -0,0 +1,189 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a file sequentially through a ring of buffers, keeping up to depth reads in flight
+ * so the disk fetches the next blocks while the caller digests or writes the current one.
+ * Blocks are handed out in file order; a block is reused for a new read once the caller
+ * asks for the next one.
+ *
+ * @author Nouman Tayyab
+ */
+public class ReadAhead implements Closeable {
+
+	/**
+	 * Size of each block in the ring.
+	 */
+	public static final int BLOCK_SIZE = 1024 * 1024;
+	private static final ThreadLocal<ByteBuffer[]> RINGS = new ThreadLocal<ByteBuffer[]>();
+	private static volatile int defaultDepth = 0;
+	private final AsynchronousFileChannel channel;
+	private final ByteBuffer[] ring;
+	private final List<Future<Integer>> reads;
+	private final long[] positions;
+	private final long size;
+	private long nextPosition = 0;
+	private int head = 0;
+	private int recycle = -1;
+
+	/**
+	 * Constructor for ReadAhead
+	 *
+	 * @param path  file to read
+	 * @param depth number of blocks in flight, at least 2
+	 * @throws IOException
+	 */
+	public ReadAhead(Path path, int depth) throws IOException {
+		this.channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+		this.size = this.channel.size();
+		this.ring = ring(Math.max(2, depth));
+		this.reads = new ArrayList<Future<Integer>>(Collections.<Future<Integer>>nCopies(this.ring.length, null));
+		this.positions = new long[this.ring.length];
+		for (int slot = 0; slot < this.ring.length; slot++) {
+			this.issue(slot);
+		}
+	}
+
+	/**
+	 * Set the depth used by hashing and copying, 0 disables read-ahead.
+	 *
+	 * @param depth blocks in flight per file
+	 */
+	public static void setDefaultDepth(int depth) {
+		defaultDepth = depth;
+	}
+
+	/**
+	 * Get the depth used by hashing and copying.
+	 *
+	 * @return blocks in flight per file, 0 if read-ahead is disabled
+	 */
+	public static int getDefaultDepth() {
+		return defaultDepth;
+	}
+
+	/**
+	 * Check whether a file is worth reading ahead: read-ahead is enabled and the file spans more than one block.
+	 *
+	 * @param size file size in bytes
+	 * @return
+	 */
+	public static boolean isEnabledFor(long size) {
+		return defaultDepth > 1 && size > BLOCK_SIZE;
+	}
+
+	/**
+	 * Get the next block of the file. The previous block must not be used anymore.
+	 *
+	 * @return the block ready for reading, null at the end of the file
+	 * @throws IOException
+	 */
+	public ByteBuffer next() throws IOException {
+		if (this.recycle >= 0) {
+			this.issue(this.recycle);
+			this.recycle = -1;
+		}
+		Future<Integer> read = this.reads.get(this.head);
+		if (read == null) {
+			return null;
+		}
+		ByteBuffer buffer = this.ring[this.head];
+		this.await(read);
+		// a short read before the end of the file is completed synchronously so blocks stay contiguous
+		while (buffer.hasRemaining()) {
+			int count = this.await(this.channel.read(buffer, this.positions[this.head] + buffer.position()));
+			if (count <= 0) {
+				break;
+			}
+		}
+		buffer.flip();
+		this.reads.set(this.head, null);
+		this.recycle = this.head;
+		this.head = (this.head + 1) % this.ring.length;
+		return buffer;
+	}
+
+	/**
+	 * Close the channel. Reads still in flight are abandoned.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+		for (int slot = 0; slot < this.reads.size(); slot++) {
+			if (this.reads.get(slot) != null) {
+				try {
+					this.reads.get(slot).get();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException ex) {
+					// the channel was closed underneath the read
+				}
+			}
+		}
+	}
+
+	private void issue(int slot) {
+		if (this.nextPosition >= this.size) {
+			this.reads.set(slot, null);
+			return;
+		}
+		ByteBuffer buffer = this.ring[slot];
+		buffer.clear();
+		buffer.limit((int) Math.min(BLOCK_SIZE, this.size - this.nextPosition));
+		this.positions[slot] = this.nextPosition;
+		this.reads.set(slot, this.channel.read(buffer, this.nextPosition));
+		this.nextPosition += buffer.limit();
+	}
+
+	private int await(Future<Integer> read) throws IOException {
+		try {
+			return read.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Read-ahead interrupted");
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IOException) {
+				throw (IOException) ex.getCause();
+			}
+			throw new IOException(ex.getCause());
+		}
+	}
+
+	private static ByteBuffer[] ring(int depth) {
+		ByteBuffer[] ring = RINGS.get();
+		if (ring == null || ring.length != depth) {
+			ring = new ByteBuffer[depth];
+			for (int slot = 0; slot < depth; slot++) {
+				ring[slot] = ByteBuffer.allocateDirect(BLOCK_SIZE);
+			}
+			RINGS.set(ring);
+		}
+		return ring;
+	}
+}
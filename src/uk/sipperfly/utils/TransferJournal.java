@@ -0,0 +1,340 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only journal of the files a transfer has staged, kept next to the target folder.
+ * Every staged file is recorded with the size and modification time of its source and
+ * the digests taken while copying. A transfer restarted after a crash skips the files
+ * whose source and staged copy have not changed since they were recorded.
+ * A torn last line after a crash is ignored.
+ *
+ * @author Nouman Tayyab
+ */
+public class TransferJournal implements Closeable {
+
+	private static String GACOM = "com.UKExactly";
+	private static final String HEADER = "Exactly-Journal\t1\t";
+	/**
+	 * Longest time a recorded file waits to be flushed to the device.
+	 */
+	private static final long SYNC_INTERVAL = 1000L * 1000 * 1000;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final FileOutputStream stream;
+	private final Writer writer;
+	private long lastSync = System.nanoTime();
+	private int resumed;
+
+	private TransferJournal(Path file, String signature, boolean resume) throws IOException {
+		if (resume) {
+			this.read(file);
+		}
+		this.stream = new FileOutputStream(file.toFile(), resume);
+		this.writer = new OutputStreamWriter(this.stream, StandardCharsets.UTF_8);
+		if (resume && !endsWithNewline(file)) {
+			// end the line torn by the crash, so the next record starts on its own line
+			this.writer.write('\n');
+		}
+		if (!resume) {
+			this.writer.write(HEADER + signature + "\n");
+			this.sync();
+		}
+	}
+
+	/**
+	 * Get the journal file of a target folder.
+	 *
+	 * @param target the bag folder in the drop location
+	 * @return a hidden file next to it
+	 */
+	public static Path pathFor(Path target) {
+		return target.resolveSibling("." + target.getFileName() + ".journal");
+	}
+
+	/**
+	 * Identify a job by its sources, so a journal is only resumed by a transfer of the same sources.
+	 *
+	 * @param sources source files and folders
+	 * @return hex SHA-256 of the sorted absolute paths
+	 */
+	public static String signature(List<String> sources) {
+		List<String> paths = new ArrayList<String>();
+		for (String source : sources) {
+			paths.add(new File(source).getAbsolutePath());
+		}
+		Collections.sort(paths);
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (String path : paths) {
+				digest.update(path.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) '\n');
+			}
+			return HashingEngine.toHex(Collections.singletonList("SHA-256"), new MessageDigest[]{digest}).get("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Check whether an existing target folder was left by an interrupted transfer of the same sources.
+	 *
+	 * @param target    the bag folder in the drop location
+	 * @param signature signature of the sources
+	 * @return true if the transfer can be resumed
+	 */
+	public static boolean canResume(Path target, String signature) {
+		Path file = pathFor(target);
+		if (!Files.isRegularFile(file)) {
+			return false;
+		}
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String header = reader.readLine();
+			return header != null && header.equals(HEADER + signature);
+		} catch (IOException ex) {
+			Logger.getLogger(GACOM).log(Level.WARNING, "Could not read transfer journal " + file, ex);
+			return false;
+		}
+	}
+
+	/**
+	 * Open the journal of a target folder, continuing it if the transfer can be resumed
+	 * and starting a new one otherwise.
+	 *
+	 * @param target    the bag folder in the drop location
+	 * @param signature signature of the sources
+	 * @return the journal
+	 * @throws IOException if it cannot be written
+	 */
+	public static TransferJournal open(Path target, String signature) throws IOException {
+		return new TransferJournal(pathFor(target), signature, canResume(target, signature));
+	}
+
+	/**
+	 * Delete the journal of a target folder, once the staged files were verified or thrown away.
+	 *
+	 * @param target the bag folder in the drop location
+	 */
+	public static void delete(Path target) {
+		try {
+			Files.deleteIfExists(pathFor(target));
+		} catch (IOException ex) {
+			Logger.getLogger(GACOM).log(Level.WARNING, "Could not delete transfer journal", ex);
+		}
+	}
+
+	private void read(Path file) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			reader.readLine();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				Entry entry = Entry.parse(line);
+				if (entry != null) {
+					this.entries.put(entry.key, entry);
+				}
+			}
+		}
+		Logger.getLogger(GACOM).log(Level.INFO, "Resuming transfer, {0} files were staged before", this.entries.size());
+	}
+
+	private static boolean endsWithNewline(Path file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+			if (raf.length() == 0) {
+				return true;
+			}
+			raf.seek(raf.length() - 1);
+			return raf.read() == '\n';
+		}
+	}
+
+	/**
+	 * Get the recorded entry of a file if neither its source nor its staged copy changed since.
+	 *
+	 * @param key    path relative to the staging data folder
+	 * @param source the source file
+	 * @param staged the staged file
+	 * @return the entry or null if the file has to be staged again
+	 */
+	public Entry done(String key, File source, File staged) {
+		Entry entry = this.entries.get(key);
+		if (entry == null
+				|| source.length() != entry.size
+				|| source.lastModified() != entry.modified
+				|| !staged.isFile()
+				|| staged.length() != entry.size) {
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Count a file that was skipped because it was staged before.
+	 */
+	public synchronized void skipped() {
+		this.resumed++;
+	}
+
+	/**
+	 * Record a staged file.
+	 *
+	 * @param key     path relative to the staging data folder
+	 * @param source  the source file, as it was staged
+	 * @param linked  true if it was staged as a hard link
+	 * @param digests algorithm to hex digest taken while copying, may be null
+	 */
+	public synchronized void record(String key, File source, boolean linked, Map<String, String> digests) {
+		Entry entry = new Entry(key, linked, source.length(), source.lastModified(), digests);
+		this.entries.put(key, entry);
+		try {
+			this.writer.write(entry.format());
+			this.writer.write('\n');
+			this.writer.flush();
+			if (System.nanoTime() - this.lastSync > SYNC_INTERVAL) {
+				this.sync();
+			}
+		} catch (IOException ex) {
+			Logger.getLogger(GACOM).log(Level.WARNING, "Could not write transfer journal", ex);
+		}
+	}
+
+	/**
+	 * Number of files skipped because they were staged before.
+	 *
+	 * @return
+	 */
+	public synchronized int getResumed() {
+		return this.resumed;
+	}
+
+	private void sync() throws IOException {
+		this.writer.flush();
+		this.stream.getFD().sync();
+		this.lastSync = System.nanoTime();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		this.sync();
+		this.writer.close();
+	}
+
+	/**
+	 * One staged file.
+	 */
+	public static class Entry {
+
+		private final String key;
+		private final boolean linked;
+		private final long size;
+		private final long modified;
+		private final Map<String, String> digests;
+
+		Entry(String key, boolean linked, long size, long modified, Map<String, String> digests) {
+			this.key = key;
+			this.linked = linked;
+			this.size = size;
+			this.modified = modified;
+			this.digests = digests == null ? Collections.<String, String>emptyMap() : digests;
+		}
+
+		/**
+		 * Check whether the file was staged as a hard link.
+		 *
+		 * @return
+		 */
+		public boolean isLinked() {
+			return linked;
+		}
+
+		/**
+		 * Get the digests taken while copying.
+		 *
+		 * @return algorithm to hex digest, empty if none were taken
+		 */
+		public Map<String, String> getDigests() {
+			return digests;
+		}
+
+		/**
+		 * Check that digests of all the algorithms were taken.
+		 *
+		 * @param algorithms MessageDigest algorithm names
+		 * @return true if every one has a digest
+		 */
+		public boolean hasDigests(List<String> algorithms) {
+			for (String algorithm : algorithms) {
+				if (this.digests.get(algorithm) == null) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		String format() {
+			StringBuilder digestList = new StringBuilder();
+			for (Map.Entry<String, String> digest : this.digests.entrySet()) {
+				if (digest.getValue() == null) {
+					continue;
+				}
+				if (digestList.length() > 0) {
+					digestList.append(';');
+				}
+				digestList.append(digest.getKey()).append('=').append(digest.getValue());
+			}
+			return (this.linked ? "L" : "C") + "\t" + this.size + "\t" + this.modified + "\t" + digestList + "\t" + this.key;
+		}
+
+		static Entry parse(String line) {
+			String[] fields = line.split("\t", 5);
+			if (fields.length != 5 || fields[4].isEmpty()) {
+				return null;
+			}
+			try {
+				Map<String, String> digests = new HashMap<String, String>();
+				if (!fields[3].isEmpty()) {
+					for (String digest : fields[3].split(";")) {
+						int equals = digest.indexOf('=');
+						if (equals < 0) {
+							return null;
+						}
+						digests.put(digest.substring(0, equals), digest.substring(equals + 1));
+					}
+				}
+				return new Entry(fields[4], fields[0].equals("L"), Long.parseLong(fields[1]), Long.parseLong(fields[2]), digests);
+			} catch (NumberFormatException ex) {
+				return null;
+			}
+		}
+	}
+}
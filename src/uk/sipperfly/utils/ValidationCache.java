@@ -0,0 +1,182 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import uk.sipperfly.persistent.Configurations;
+import uk.sipperfly.persistent.ValidationRecord;
+import uk.sipperfly.repository.ValidationRecordRepo;
+
+/**
+ * Outcome of earlier validations of a bag, stored in the embedded database.
+ * A bag is only skipped while its fingerprint, built from the size, modification time
+ * and file key of every file, is the same as when it last validated.
+ *
+ * @author Nouman Tayyab
+ */
+public class ValidationCache {
+
+	private static String GACOM = "com.UKExactly";
+	private final ValidationRecordRepo repo;
+	private final boolean forceRehash;
+
+	/**
+	 * Constructor for ValidationCache
+	 *
+	 * @param forceRehash never skip a validation, only store new results
+	 */
+	public ValidationCache(boolean forceRehash) {
+		this.repo = new ValidationRecordRepo();
+		this.forceRehash = forceRehash;
+	}
+
+	/**
+	 * Open the cache for the current configuration.
+	 *
+	 * @param config
+	 * @return the cache or null if it is disabled
+	 */
+	public static ValidationCache open(Configurations config) {
+		if (!config.getValidationCache()) {
+			return null;
+		}
+		try {
+			return new ValidationCache(config.getForceRehash());
+		} catch (RuntimeException ex) {
+			Logger.getLogger(GACOM).log(Level.SEVERE, "Validation cache unavailable", ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Fingerprint of a bag folder or archive. Must be taken before the bag is validated.
+	 *
+	 * @param bag bag folder or .zip archive
+	 * @return fingerprint of the current state
+	 * @throws IOException
+	 */
+	public static Fingerprint fingerprint(File bag) throws IOException {
+		List<File> files = new ArrayList<File>();
+		if (bag.isDirectory()) {
+			CommonUtil.listFiles(bag, files);
+		} else {
+			files.add(bag);
+		}
+		List<String> lines = new ArrayList<String>();
+		for (File file : files) {
+			String path = bag.isDirectory() ? CommonUtil.relativeKey(bag.toPath(), file.toPath()) : file.getName();
+			FixityCache.Key key = FixityCache.keyOf(file);
+			if (!key.isStable()) {
+				// a bag copied again under the same name would match, it is validated every time
+				return new Fingerprint(bag.getAbsolutePath(), null, files.size());
+			}
+			lines.add(path + '\t' + key.state());
+		}
+		Collections.sort(lines);
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IOException(ex);
+		}
+		for (String line : lines) {
+			digest.update(line.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) '\n');
+		}
+		return new Fingerprint(bag.getAbsolutePath(), CommonUtil.toHex(digest.digest()), files.size());
+	}
+
+	/**
+	 * Check whether a bag validated successfully in exactly this state.
+	 *
+	 * @param fingerprint current fingerprint of the bag
+	 * @return true if the last validation of this state succeeded
+	 */
+	public boolean isValid(Fingerprint fingerprint) {
+		if (this.forceRehash) {
+			return false;
+		}
+		if (fingerprint.value == null) {
+			return false;
+		}
+		ValidationRecord record = this.repo.getByPath(fingerprint.path);
+		return record != null && record.getValid() && fingerprint.value.equals(record.getFingerprint());
+	}
+
+	/**
+	 * Store the outcome of a validation, replacing the result of any earlier state.
+	 *
+	 * @param fingerprint fingerprint taken before the validation
+	 * @param valid       outcome
+	 */
+	public void remember(Fingerprint fingerprint, boolean valid) {
+		if (fingerprint.value == null) {
+			return;
+		}
+		try {
+			ValidationRecord record = this.repo.getByPath(fingerprint.path);
+			if (record == null) {
+				record = new ValidationRecord();
+				record.setBagPath(fingerprint.path);
+			}
+			record.setFingerprint(fingerprint.value);
+			record.setFileCount(fingerprint.files);
+			record.setValid(valid);
+			record.setValidated(System.currentTimeMillis());
+			this.repo.save(record);
+		} catch (RuntimeException ex) {
+			Logger.getLogger(GACOM).log(Level.SEVERE, "Could not save validation result", ex);
+		}
+	}
+
+	/**
+	 * Release the database connection.
+	 */
+	public void close() {
+		this.repo.close();
+	}
+
+	/**
+	 * State of a bag at one point in time.
+	 */
+	public static class Fingerprint {
+
+		private final String path;
+		private final String value;
+		private final int files;
+
+		Fingerprint(String path, String value, int files) {
+			this.path = path;
+			this.value = value;
+			this.files = files;
+		}
+
+		/**
+		 * Get hex fingerprint.
+		 *
+		 * @return null if the state of the files cannot be told apart from a copy of them
+		 */
+		public String getValue() {
+			return value;
+		}
+	}
+}
@@ -0,0 +1,232 @@
+/* 
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * I/O cost and durability of the copy verification of one transfer, for the job report.
+ *
+ * @author Nouman Tayyab
+ */
+public class VerifyReport {
+
+	/**
+	 * How the staged copy is verified.
+	 */
+	public enum Mode {
+
+		/**
+		 * Read the staged copy back through the page cache, usually without touching the disk.
+		 */
+		CACHED,
+		/**
+		 * Flush every staged file to the device, then read it back with direct I/O.
+		 */
+		DIRECT,
+		/**
+		 * Hash the data while it is written and flush every file, without reading it back.
+		 * Verification adds nothing to the page cache.
+		 */
+		STREAMING;
+
+		/**
+		 * Parse a configured mode.
+		 *
+		 * @param value
+		 * @return the mode, CACHED if unknown
+		 */
+		public static Mode parse(String value) {
+			if (value != null) {
+				for (Mode mode : values()) {
+					if (mode.name().equalsIgnoreCase(value.trim())) {
+						return mode;
+					}
+				}
+			}
+			return CACHED;
+		}
+	}
+
+	private final Mode mode;
+	private final AtomicLong reads = new AtomicLong();
+	private final AtomicLong bytesRead = new AtomicLong();
+	private final AtomicLong readNanos = new AtomicLong();
+	private final AtomicLong directReads = new AtomicLong();
+	private final AtomicLong cachedReads = new AtomicLong();
+	private final AtomicLong filesSynced = new AtomicLong();
+	private final AtomicLong syncNanos = new AtomicLong();
+	private final AtomicLong syncFailures = new AtomicLong();
+	private final AtomicLong bytesStreamed = new AtomicLong();
+	private final AtomicLong wallNanos = new AtomicLong();
+	private final List<String> tuning = new ArrayList<String>();
+	private volatile String copyChecksum;
+
+	/**
+	 * Constructor for VerifyReport
+	 *
+	 * @param mode
+	 */
+	public VerifyReport(Mode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Get mode.
+	 *
+	 * @return
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Record one read back of a file or chunk.
+	 *
+	 * @param bytes  bytes read
+	 * @param nanos  time spent reading
+	 * @param direct true if the page cache was bypassed
+	 */
+	public void fileRead(long bytes, long nanos, boolean direct) {
+		this.reads.incrementAndGet();
+		this.bytesRead.addAndGet(bytes);
+		this.readNanos.addAndGet(nanos);
+		if (direct) {
+			this.directReads.incrementAndGet();
+		} else {
+			this.cachedReads.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Record one fsync.
+	 *
+	 * @param nanos time spent flushing
+	 */
+	public void fileSynced(long nanos) {
+		this.filesSynced.incrementAndGet();
+		this.syncNanos.addAndGet(nanos);
+	}
+
+	/**
+	 * Record a file that could not be flushed, it is still read back.
+	 */
+	public void syncFailed() {
+		this.syncFailures.incrementAndGet();
+	}
+
+	/**
+	 * Record bytes hashed while they were copied.
+	 *
+	 * @param bytes
+	 */
+	public void fileStreamed(long bytes) {
+		this.bytesStreamed.addAndGet(bytes);
+	}
+
+	/**
+	 * Record the elapsed time of a verification pass, reads of several threads overlap within it.
+	 *
+	 * @param nanos
+	 */
+	public void passCompleted(long nanos) {
+		this.wallNanos.addAndGet(nanos);
+	}
+
+	/**
+	 * Record that the copy is verified with a fast checksum instead of the manifest algorithms.
+	 *
+	 * @param copyChecksum CRC32C or CRC32
+	 */
+	public void setCopyChecksum(String copyChecksum) {
+		this.copyChecksum = copyChecksum;
+	}
+
+	/**
+	 * Record the thread counts the auto-tuner chose.
+	 *
+	 * @param decisions
+	 */
+	public void tuned(List<String> decisions) {
+		synchronized (this.tuning) {
+			this.tuning.addAll(decisions);
+		}
+	}
+
+	/**
+	 * Lines for the job report.
+	 *
+	 * @return
+	 */
+	public List<String> lines() {
+		List<String> lines = new ArrayList<String>();
+		lines.add("Verification mode: " + this.mode);
+		if (this.copyChecksum != null) {
+			lines.add("Copy verified with " + this.copyChecksum + ", manifest digests were computed once");
+		}
+		if (this.reads.get() > 0) {
+			long elapsed = this.wallNanos.get() > 0 ? this.wallNanos.get() : this.readNanos.get();
+			lines.add(String.format("Read back: %d reads, %d bytes in %.1f s (%.1f MB/s), %.1f s of read time over all threads",
+					this.reads.get(), this.bytesRead.get(), seconds(elapsed),
+					rate(this.bytesRead.get(), elapsed), seconds(this.readNanos.get())));
+			lines.add(String.format("Read path: %d reads with direct I/O, %d through the page cache",
+					this.directReads.get(), this.cachedReads.get()));
+		}
+		if (this.bytesStreamed.get() > 0) {
+			lines.add(String.format("Hashed while copying: %d bytes", this.bytesStreamed.get()));
+		}
+		if (this.filesSynced.get() > 0) {
+			lines.add(String.format("Flushed to device: %d files in %.1f s", this.filesSynced.get(), seconds(this.syncNanos.get())));
+		}
+		if (this.syncFailures.get() > 0) {
+			lines.add(String.format("Not flushed to device: %d files could not be flushed", this.syncFailures.get()));
+		}
+		lines.add("Durability: " + this.durability());
+		synchronized (this.tuning) {
+			for (String decision : this.tuning) {
+				lines.add("Auto-tune: " + decision);
+			}
+		}
+		return lines;
+	}
+
+	private String durability() {
+		if (this.mode == Mode.STREAMING) {
+			return "every staged file was flushed to the device and hashed as it was written, it was not read back";
+		}
+		if (this.mode == Mode.DIRECT && this.syncFailures.get() > 0) {
+			return this.syncFailures.get() + " staged files could not be flushed to the device, they were read back but may not have reached it";
+		}
+		if (this.mode == Mode.DIRECT && this.cachedReads.get() == 0) {
+			return "every staged file was flushed to the device and read back from it";
+		}
+		if (this.mode == Mode.DIRECT) {
+			return "every staged file was flushed to the device, " + this.cachedReads.get()
+					+ " reads went through the page cache because direct I/O is not supported";
+		}
+		return "the staged copy was read back through the page cache, it may not have reached the device";
+	}
+
+	private static double seconds(long nanos) {
+		return nanos / 1e9;
+	}
+
+	private static double rate(long bytes, long nanos) {
+		if (nanos == 0) {
+			return 0;
+		}
+		return bytes / 1048576.0 / seconds(nanos);
+	}
+}
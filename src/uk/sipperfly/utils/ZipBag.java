@@ -0,0 +1,309 @@
+/*
+ * Exactly
+ * Author: Nouman Tayyab (nouman@weareavp.com)
+ * Author: Rimsha Khalid (rimsha@weareavp.com)
+ * Version: 0.1.6
+ * Requires: JDK 1.7 or higher
+ * Description: This tool transfers digital files to the UK Exactly
+ * Support: info@weareavp.com
+ * License: Apache 2.0
+ * Copyright: University of Kentucky (http://www.uky.edu). All Rights Reserved
+ *
+ */
+package uk.sipperfly.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A serialized bag read straight from its .zip archive. Opening it reads only the
+ * central directory and the tag files, payload entries are only read when validating,
+ * each worker thread through its own ZipFile so that entries are inflated in parallel.
+ *
+ * @author Nouman Tayyab
+ */
+public class ZipBag extends BagSource {
+
+	private static String GACOM = "com.UKExactly";
+	private final File file;
+	private final ZipFile zip;
+	private final String prefix;
+	/**
+	 * Entries of all files below the bag root, keyed by their path relative to the root.
+	 */
+	private final Map<String, ZipEntry> entries = new LinkedHashMap<String, ZipEntry>();
+	private int payloadFiles;
+	private long payloadBytes;
+
+	private ZipBag(File file, ZipFile zip, String prefix, boolean manifestsRead) {
+		super(manifestsRead);
+		this.file = file;
+		this.zip = zip;
+		this.prefix = prefix;
+	}
+
+	/**
+	 * Open a zipped bag. The bag root is the folder of the least nested bagit.txt.
+	 *
+	 * @param file .zip archive
+	 * @return the bag
+	 * @throws IOException if the archive cannot be read or holds no bagit.txt
+	 */
+	public static ZipBag open(File file) throws IOException {
+		return open(file, true);
+	}
+
+	/**
+	 * Open a zipped bag. The bag root is the folder of the least nested bagit.txt.
+	 *
+	 * @param file      .zip archive
+	 * @param manifests false to only note which manifests exist, enough to recognize the bag
+	 *                  but not to check or validate it
+	 * @return the bag
+	 * @throws IOException if the archive cannot be read or holds no bagit.txt
+	 */
+	public static ZipBag open(File file, boolean manifests) throws IOException {
+		ZipFile zip = new ZipFile(file);
+		try {
+			String prefix = null;
+			Enumeration<? extends ZipEntry> all = zip.entries();
+			while (all.hasMoreElements()) {
+				String name = all.nextElement().getName().replace('\\', '/');
+				if (name.equals("bagit.txt") || name.endsWith("/bagit.txt")) {
+					String candidate = name.substring(0, name.length() - "bagit.txt".length());
+					if (prefix == null || depth(candidate) < depth(prefix)) {
+						prefix = candidate;
+					}
+				}
+			}
+			if (prefix == null) {
+				throw new IOException("No bagit.txt found in " + file);
+			}
+			ZipBag bag = new ZipBag(file, zip, prefix, manifests);
+			bag.readCentralDirectory();
+			bag.readTagFiles();
+			return bag;
+		} catch (IOException | RuntimeException ex) {
+			zip.close();
+			throw ex;
+		}
+	}
+
+	private static int depth(String path) {
+		int depth = 0;
+		for (int i = 0; i < path.length(); i++) {
+			if (path.charAt(i) == '/') {
+				depth++;
+			}
+		}
+		return depth;
+	}
+
+	private void readCentralDirectory() {
+		Enumeration<? extends ZipEntry> all = this.zip.entries();
+		while (all.hasMoreElements()) {
+			ZipEntry entry = all.nextElement();
+			String name = entry.getName().replace('\\', '/');
+			if (entry.isDirectory() || !name.startsWith(this.prefix)) {
+				continue;
+			}
+			String path = name.substring(this.prefix.length());
+			this.entries.put(path, entry);
+			if (path.startsWith("data/")) {
+				this.payloadFiles++;
+				this.payloadBytes += Math.max(0, entry.getSize());
+			}
+		}
+	}
+
+	@Override
+	public InputStream open(String path) throws IOException {
+		ZipEntry entry = this.entries.get(path);
+		if (entry == null) {
+			throw new FileNotFoundException(path + " is not in " + this.file);
+		}
+		return this.zip.getInputStream(entry);
+	}
+
+	@Override
+	protected Collection<String> rootFiles() {
+		List<String> names = new ArrayList<String>();
+		for (String path : this.entries.keySet()) {
+			if (path.indexOf('/') < 0) {
+				names.add(path);
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Get the archive.
+	 *
+	 * @return
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Get the folder of the bag root inside the archive.
+	 *
+	 * @return "" or i.e. "mybag/"
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * Get number of payload files according to the central directory.
+	 *
+	 * @return file count
+	 */
+	public int getPayloadFiles() {
+		return payloadFiles;
+	}
+
+	/**
+	 * Get uncompressed size of the payload according to the central directory.
+	 *
+	 * @return byte count
+	 */
+	public long getPayloadBytes() {
+		return payloadBytes;
+	}
+
+	/**
+	 * Check that bagit.txt, the data folder and a payload manifest exist.
+	 *
+	 * @return description of the first problem, null if the archive is organized as a bag
+	 */
+	public String checkStructure() {
+		if (this.getVersion() == null) {
+			return "bagit.txt does not declare a BagIt-Version.";
+		}
+		if (this.payloadManifests.isEmpty()) {
+			return "The bag has no payload manifest.";
+		}
+		if (this.payloadFiles == 0 && !this.hasDirectory("data/")) {
+			return "The bag has no data folder.";
+		}
+		return null;
+	}
+
+	/**
+	 * Check the structure of the bag without reading any payload: bagit.txt, the data folder
+	 * and a payload manifest exist, and the manifests list exactly the payload entries.
+	 *
+	 * @return description of the first problem, null if the bag is complete
+	 */
+	public String checkComplete() {
+		this.requireManifests();
+		String structure = this.checkStructure();
+		if (structure != null) {
+			return structure;
+		}
+		for (Map.Entry<String, Map<String, String>> manifest : this.payloadManifests.entrySet()) {
+			for (String path : manifest.getValue().keySet()) {
+				if (!this.entries.containsKey(path)) {
+					return "File " + path + " is listed in manifest-" + manifest.getKey() + " but missing from the bag.";
+				}
+			}
+			for (String path : this.entries.keySet()) {
+				if (path.startsWith("data/") && !manifest.getValue().containsKey(path)) {
+					return "File " + path + " is not listed in the " + manifest.getKey() + " payload manifest.";
+				}
+			}
+		}
+		for (Map<String, String> manifest : this.tagManifests.values()) {
+			for (String path : manifest.keySet()) {
+				if (!this.entries.containsKey(path)) {
+					return "File " + path + " is listed in a tag manifest but missing from the bag.";
+				}
+			}
+		}
+		return null;
+	}
+
+	private boolean hasDirectory(String path) {
+		return this.zip.getEntry(this.prefix + path) != null;
+	}
+
+	/**
+	 * Hash every entry listed in the payload and tag manifests and compare it with the manifests.
+	 * Files in the listener and the result are paths relative to the bag root.
+	 *
+	 * @param engine   hashing engine whose threads and auto-tuning the validation uses
+	 * @param failFast stop at the first corrupt entry
+	 * @param listener per entry results, may be null
+	 * @return corrupt and unreadable entries
+	 * @throws InterruptedException
+	 */
+	public BagValidator.Result validate(HashingEngine engine, boolean failFast, BagValidator.ValidationListener listener) throws InterruptedException {
+		this.requireManifests();
+		final List<ZipFile> opened = Collections.synchronizedList(new ArrayList<ZipFile>());
+		final ThreadLocal<ZipFile> zips = new ThreadLocal<ZipFile>();
+		BagValidator validator = new BagValidator(engine, failFast) {
+			@Override
+			protected long length(File path) {
+				return Math.max(0, entry(path).getSize());
+			}
+
+			@Override
+			protected File location() {
+				return file;
+			}
+
+			@Override
+			protected Map<String, String> checkSums(File path, List<String> algorithms) throws IOException, NoSuchAlgorithmException {
+				ZipFile own = zips.get();
+				if (own == null) {
+					own = new ZipFile(file);
+					opened.add(own);
+					zips.set(own);
+				}
+				try (InputStream in = own.getInputStream(own.getEntry(entry(path).getName()))) {
+					return HashingEngine.checkSums(in, algorithms);
+				}
+			}
+		};
+		for (Map.Entry<String, Map<String, String>> expected : this.getExpectedChecksums().entrySet()) {
+			for (Map.Entry<String, String> checksum : expected.getValue().entrySet()) {
+				validator.expect(new File(expected.getKey()), checksum.getKey(), checksum.getValue());
+			}
+		}
+		try {
+			return validator.validate(listener);
+		} finally {
+			for (ZipFile own : opened) {
+				try {
+					own.close();
+				} catch (IOException ex) {
+					Logger.getLogger(GACOM).log(Level.WARNING, "Unable to close " + file, ex);
+				}
+			}
+		}
+	}
+
+	private ZipEntry entry(File path) {
+		return this.entries.get(path.getPath().replace(File.separatorChar, '/'));
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.zip.close();
+	}
+}